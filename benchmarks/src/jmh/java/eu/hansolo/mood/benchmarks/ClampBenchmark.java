@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import eu.hansolo.mood.controls.Helper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the primitive clamp of Helper with the generic clamp the controls used
+ * before. Run with the gc profiler, gc.alloc.rate.norm has to be 0 for Helper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClampBenchmark {
+    private static final int MASK = 1023;
+    private double[]         values;
+    private int              index;
+
+
+    @Setup public void setup() {
+        values = new double[MASK + 1];
+        for (int i = 0 ; i <= MASK ; i++) { values[i] = ((i * 0.618034) % 1.0) * 3 - 1; }
+    }
+
+    @Benchmark public double helperClamp() { return Helper.clamp(0d, 1d, values[index++ & MASK]); }
+
+    @Benchmark public int helperToArgb() {
+        final double VALUE = values[index++ & MASK];
+        return Helper.toArgb(VALUE, 1 - VALUE, VALUE * 0.5, 1);
+    }
+
+    @Benchmark public double genericClamp() { return genericClamp(0d, 1d, values[index++ & MASK]); }
+
+    private static <T extends Number> T genericClamp(final T MIN, final T MAX, final T VALUE) {
+        if (VALUE.doubleValue() < MIN.doubleValue()) return MIN;
+        if (VALUE.doubleValue() > MAX.doubleValue()) return MAX;
+        return VALUE;
+    }
+}
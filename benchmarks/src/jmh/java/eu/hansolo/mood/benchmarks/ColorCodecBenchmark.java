@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import eu.hansolo.mood.mqtt.ColorCodec;
+import eu.hansolo.mood.mqtt.ColorCodec.Format;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Payload parsing as done on every inbound lamp message, the regex variant
+ * is the parsing that MainView used before the ColorCodec existed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorCodecBenchmark {
+    private static final Pattern RGB_PATTERN = Pattern.compile("^([0-9]{1,3}),([0-9]{1,3}),([0-9]{1,3})$");
+    private byte[]               decimalPayload;
+    private byte[]               hexPayload;
+    private byte[]               binaryPayload;
+    private byte[]               buffer;
+    private Color                color;
+    private int                  argb;
+
+
+    @Setup public void setup() {
+        decimalPayload = "190,42,7".getBytes();
+        hexPayload     = "be2a07".getBytes();
+        binaryPayload  = new byte[] { (byte) 190, 42, 7 };
+        buffer         = new byte[ColorCodec.TEXT_LENGTH];
+        color          = Color.rgb(190, 42, 7);
+        argb           = 0xFFBE2A07;
+    }
+
+    @Benchmark public int decodeDecimal() { return ColorCodec.decode(decimalPayload, Format.TEXT, 0); }
+
+    @Benchmark public int decodeHex() { return ColorCodec.decode(hexPayload, Format.TEXT, 0); }
+
+    @Benchmark public int decodeBinary() { return ColorCodec.decode(binaryPayload, Format.BINARY, 0); }
+
+    @Benchmark public byte[] encodeText() {
+        ColorCodec.encodeText(argb, buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark public int legacyRegexDecode() {
+        Matcher matcher = RGB_PATTERN.matcher(new String(decimalPayload));
+        int red   = 0;
+        int green = 0;
+        int blue  = 0;
+        while (matcher.find()) {
+            red   = Integer.parseInt(matcher.group(1));
+            green = Integer.parseInt(matcher.group(2));
+            blue  = Integer.parseInt(matcher.group(3));
+        }
+        return red << 16 | green << 8 | blue;
+    }
+
+    @Benchmark public byte[] legacyTextEncode() { return color.toString().substring(2, 8).getBytes(); }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import eu.hansolo.mood.controls.ColorRegulator;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorRegulatorBenchmark {
+    private static final int MASK = 255;
+    private Color[]          colors;
+    private double[]         values;
+    private ColorRegulator   regulator;
+    private int              index;
+
+
+    @Setup public void setup() throws InterruptedException {
+        FxToolkit.start();
+        colors = new Color[MASK + 1];
+        values = new double[MASK + 1];
+        for (int i = 0 ; i <= MASK ; i++) {
+            colors[i] = Color.hsb(i * 1.40625, 1, 1);
+            values[i] = (i * 0.618034) % 1.0;
+        }
+        regulator = new ColorRegulator();
+    }
+
+    @Benchmark public double colorDistance() {
+        final int I = index++;
+        return ColorRegulator.colorDistance(colors[I & MASK], colors[(I + 7) & MASK]);
+    }
+
+    /**
+     * setTargetValue() -> rotate() -> GradientLookup.getColorAt(), with the gc profiler the
+     * allocation per operation should only be the Color that is created by getColorAt().
+     */
+    @Benchmark public Color setTargetValue() {
+        regulator.setTargetValue(values[index++ & MASK]);
+        return regulator.getTargetColor();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import eu.hansolo.mood.controls.ConicalGradient;
+import javafx.scene.image.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConicalGradientBenchmark {
+    @Param({ "64", "256", "512" })
+    public int              size;
+    @Param({ "2", "8", "32" })
+    public int              stopCount;
+    private ConicalGradient gradient;
+
+
+    @Setup public void setup() throws InterruptedException {
+        FxToolkit.start();
+        gradient = new ConicalGradient(Stops.create(stopCount));
+    }
+
+    @Benchmark public Image getImage() { return gradient.getImage(size, size); }
+
+    @Benchmark public Image getRoundImage() { return gradient.getRoundImage(size); }
+
+    // Includes building the color lookup table
+    @Benchmark public Image recalculateAndGetRoundImage() {
+        gradient.recalculateWithAngle(90);
+        return gradient.getRoundImage(size);
+    }
+}
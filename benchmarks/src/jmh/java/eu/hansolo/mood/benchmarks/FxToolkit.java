@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import com.sun.javafx.application.PlatformImpl;
+
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Starts the JavaFX toolkit once per benchmark JVM, images can't be created without it.
+ * The build passes the Monocle headless properties, so no display is needed.
+ */
+final class FxToolkit {
+    private static boolean started;
+
+
+    // ******************** Constructors **************************************
+    private FxToolkit() {}
+
+
+    // ******************** Methods *******************************************
+    static synchronized void start() throws InterruptedException {
+        if (started) return;
+        final CountDownLatch LATCH = new CountDownLatch(1);
+        PlatformImpl.startup(LATCH::countDown);
+        LATCH.await();
+        started = true;
+    }
+}
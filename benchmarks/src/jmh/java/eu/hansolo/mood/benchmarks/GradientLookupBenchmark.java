@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import eu.hansolo.mood.controls.GradientLookup;
+import eu.hansolo.mood.controls.GradientLookup.Interpolation;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GradientLookupBenchmark {
+    private static final int MASK = 1023;
+    @Param({ "2", "8", "32" })
+    public int               stopCount;
+    @Param({ "0", "1024" })
+    public int               tableSize;
+    @Param({ "SRGB", "OKLAB" })
+    public Interpolation     interpolation;
+    private GradientLookup   lookup;
+    private double[]         positions;
+    private Color[]          colors;
+    private int[]            argbs;
+    private int              index;
+
+
+    @Setup public void setup() {
+        lookup = new GradientLookup(Stops.create(stopCount));
+        lookup.setTableSize(tableSize);
+        lookup.setInterpolation(interpolation);
+        positions = new double[MASK + 1];
+        colors    = new Color[MASK + 1];
+        argbs     = new int[MASK + 1];
+        for (int i = 0 ; i <= MASK ; i++) {
+            positions[i] = (i * 0.618034) % 1.0;
+            colors[i]    = Color.hsb(positions[i] * 360, 1, 1);
+            argbs[i]     = lookup.getArgbAt(positions[i]);
+        }
+    }
+
+    @Benchmark public Color getColorAt() { return lookup.getColorAt(positions[index++ & MASK]); }
+
+    @Benchmark public int getArgbAt() { return lookup.getArgbAt(positions[index++ & MASK]); }
+
+    @Benchmark public double getValueFromColor() { return lookup.getValueFrom(colors[index++ & MASK]); }
+
+    @Benchmark public double getValueFromArgb() { return lookup.getValueFrom(argbs[index++ & MASK]); }
+}
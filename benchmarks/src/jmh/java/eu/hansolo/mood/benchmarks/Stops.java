@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.benchmarks;
+
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Stop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Creates reproducible gradient stops for the benchmarks
+ */
+final class Stops {
+
+    // ******************** Constructors **************************************
+    private Stops() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * @param COUNT number of stops, at least 2
+     * @return stops evenly distributed from 0 to 1 around the hue wheel
+     */
+    static List<Stop> create(final int COUNT) {
+        final int  N     = Math.max(2, COUNT);
+        List<Stop> stops = new ArrayList<>(N);
+        for (int i = 0 ; i < N ; i++) {
+            final double OFFSET = i / (double) (N - 1);
+            stops.add(new Stop(OFFSET, Color.hsb(OFFSET * 360, 1, 1)));
+        }
+        return stops;
+    }
+}
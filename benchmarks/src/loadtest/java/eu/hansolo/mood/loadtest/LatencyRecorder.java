@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.loadtest;
+
+import java.util.Arrays;
+
+
+/**
+ * Collects latency samples in nanoseconds and computes percentiles at the end of a run
+ */
+public class LatencyRecorder {
+    private long[] samples;
+    private int    count;
+
+
+    // ******************** Constructors **************************************
+    public LatencyRecorder(final int EXPECTED_SAMPLES) {
+        samples = new long[Math.max(16, EXPECTED_SAMPLES)];
+        count   = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public synchronized void record(final long NANOS) {
+        if (count == samples.length) { samples = Arrays.copyOf(samples, count * 2); }
+        samples[count++] = NANOS;
+    }
+
+    public synchronized int getCount() { return count; }
+
+    /**
+     * @param PERCENTILE between 0 and 100
+     * @return the latency in nanoseconds below which the given percentage of samples are
+     */
+    public synchronized long getPercentile(final double PERCENTILE) {
+        if (0 == count) return 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        final int INDEX = (int) Math.ceil(PERCENTILE / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, INDEX))];
+    }
+
+    public synchronized long getMax() {
+        long max = 0;
+        for (int i = 0 ; i < count ; i++) { max = Math.max(max, samples[i]); }
+        return max;
+    }
+}
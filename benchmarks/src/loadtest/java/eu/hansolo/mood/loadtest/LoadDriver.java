@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.loadtest;
+
+import eu.hansolo.mood.mqtt.ColorCodec;
+import eu.hansolo.mood.mqtt.Lamp;
+import eu.hansolo.mood.mqtt.LampListener;
+import eu.hansolo.mood.mqtt.MqttDelivery;
+import eu.hansolo.mood.mqtt.MqttEvent.MqttEventType;
+import eu.hansolo.mood.mqtt.MqttManager;
+import eu.hansolo.mood.mqtt.MqttMetrics;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Starts a LoopbackBroker, N SimulatedLamps and M clients that publish colors
+ * to the lamps and measure the time until the lamp echoes the color on its
+ * status topic. The first client is the MqttManager of the app, the others
+ * are plain Paho clients.
+ *
+ * Options (key=value): lamps, clients, messages (per client), rate (messages
+ * per second and client), manager (true/false), dropAfter (ms after the start
+ * all connections will be dropped, 0 = never), timeout (ms to wait for echoes)
+ */
+public class LoadDriver {
+    private static final String PREFIX          = "huzzah";
+    private static final long   MOOD_INTERVAL   = 500;
+    private static final long   RECONNECT_DELAY = 100;
+
+
+    // ******************** Methods *******************************************
+    public static void main(final String[] ARGS) throws Exception {
+        final Map<String, String> OPTIONS = parseOptions(ARGS);
+        final int     LAMPS      = Integer.parseInt(OPTIONS.getOrDefault("lamps", "4"));
+        final int     CLIENTS    = Integer.parseInt(OPTIONS.getOrDefault("clients", "2"));
+        final int     MESSAGES   = Integer.parseInt(OPTIONS.getOrDefault("messages", "1000"));
+        final int     RATE       = Integer.parseInt(OPTIONS.getOrDefault("rate", "200"));
+        final boolean MANAGER    = Boolean.parseBoolean(OPTIONS.getOrDefault("manager", "true"));
+        final long    DROP_AFTER = Long.parseLong(OPTIONS.getOrDefault("dropAfter", "0"));
+        final long    TIMEOUT    = Long.parseLong(OPTIONS.getOrDefault("timeout", "5000"));
+
+        final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "Load Driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LoopbackBroker broker = new LoopbackBroker(0);
+        broker.start();
+        final String ADDRESS = broker.getAddress() + ":" + broker.getPort();
+        System.out.println("Broker listening on " + ADDRESS);
+
+        List<SimulatedLamp> lamps = new ArrayList<>(LAMPS);
+        for (int i = 1 ; i <= LAMPS ; i++) {
+            SimulatedLamp lamp = new SimulatedLamp(ADDRESS, PREFIX, Integer.toString(i), SCHEDULER, MOOD_INTERVAL);
+            lamp.connect();
+            lamps.add(lamp);
+        }
+
+        final LatencyRecorder RECORDER = new LatencyRecorder(CLIENTS * MESSAGES);
+        List<Client> clients = new ArrayList<>(CLIENTS);
+        for (int i = 0 ; i < CLIENTS ; i++) {
+            Client client = (0 == i && MANAGER) ? new ManagerClient(i, RECORDER, broker, LAMPS) : new PahoClient(i, RECORDER, ADDRESS, SCHEDULER);
+            client.connect();
+            clients.add(client);
+        }
+
+        final long DROP_TIME = DROP_AFTER > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DROP_AFTER) : 0;
+        if (DROP_AFTER > 0) {
+            SCHEDULER.schedule(() -> {
+                System.out.println("Dropping all connections");
+                for (Client client : clients) { client.dropTime = System.nanoTime(); }
+                broker.disconnectAll();
+            }, DROP_AFTER, TimeUnit.MILLISECONDS);
+        }
+
+        final long START = System.nanoTime();
+        List<Thread> senders = new ArrayList<>(CLIENTS);
+        for (Client client : clients) {
+            Thread sender = new Thread(() -> client.run(MESSAGES, RATE, LAMPS), "Sender " + client.index);
+            sender.start();
+            senders.add(sender);
+        }
+        for (Thread sender : senders) { sender.join(); }
+        final long SENT = System.nanoTime();
+
+        final long DEADLINE = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        for (Client client : clients) {
+            while (!client.pending.isEmpty() && System.nanoTime() < DEADLINE) { Thread.sleep(10); }
+        }
+
+        report(clients, RECORDER, broker, LAMPS, SENT - START, DROP_TIME);
+        if (MANAGER) { reportManagerMetrics(MqttManager.INSTANCE.getMetrics()); }
+
+        for (Client client : clients) { client.disconnect(); }
+        for (SimulatedLamp lamp : lamps) { lamp.disconnect(); }
+        broker.stop();
+        System.exit(0);
+    }
+
+    private static void report(final List<Client> CLIENTS, final LatencyRecorder RECORDER, final LoopbackBroker BROKER, final int LAMPS, final long DURATION, final long DROP_TIME) {
+        long sent   = 0;
+        long failed = 0;
+        long lost   = 0;
+        for (Client client : CLIENTS) {
+            sent   += client.sent.get();
+            failed += client.failed.get();
+            lost   += client.pending.size();
+        }
+        final double SECONDS = DURATION / 1e9;
+        System.out.println();
+        System.out.println(String.format("lamps %d, clients %d", LAMPS, CLIENTS.size()));
+        System.out.println(String.format("sent %d, failed %d, echoed %d, lost %d", sent, failed, RECORDER.getCount(), lost));
+        System.out.println(String.format("throughput %.0f msg/s, broker received %d, forwarded %d", sent / SECONDS, BROKER.getReceivedMessages(), BROKER.getForwardedMessages()));
+        System.out.println(String.format("latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                                         RECORDER.getPercentile(50) / 1e6, RECORDER.getPercentile(90) / 1e6,
+                                         RECORDER.getPercentile(99) / 1e6, RECORDER.getMax() / 1e6));
+        if (DROP_TIME > 0) {
+            for (Client client : CLIENTS) {
+                final long RECONNECT = client.reconnectTime.get();
+                System.out.println(String.format("%s reconnected after %s", client.getName(), RECONNECT > 0 ? String.format("%.0f ms", RECONNECT / 1e6) : "-"));
+            }
+        }
+    }
+
+    private static void reportManagerMetrics(final MqttMetrics METRICS) {
+        System.out.println(String.format("MqttManager %s, reconnect attempts %d, published %d, failed %d, in flight %d, queued %d",
+                                         METRICS.getConnectionState(), METRICS.getReconnectAttempts(), METRICS.getPublishSuccessCount(),
+                                         METRICS.getPublishFailureCount(), METRICS.getInFlightCount(), METRICS.getQueuedCount()));
+        System.out.println("MqttManager connect latency " + METRICS.getConnectLatency());
+        System.out.println("MqttManager disconnected " + METRICS.getDisconnectedTime());
+    }
+
+    private static Map<String, String> parseOptions(final String[] ARGS) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : ARGS) {
+            final int INDEX = arg.indexOf('=');
+            if (INDEX > 0) { options.put(arg.substring(0, INDEX), arg.substring(INDEX + 1)); }
+        }
+        return options;
+    }
+
+    // Colors carry the client index in the upper 4 bits and a sequence number in the lower 20 bits
+    private static int colorOf(final int CLIENT, final int SEQUENCE) { return (CLIENT & 0xF) << 20 | (SEQUENCE & 0xFFFFF); }
+
+    private static long keyOf(final String LAMP_ID, final int RGB) { return Long.parseLong(LAMP_ID) << 24 | (RGB & 0xFFFFFF); }
+
+    private static String lampIdOf(final String STATUS_TOPIC) {
+        final int END   = STATUS_TOPIC.lastIndexOf('/');
+        final int START = STATUS_TOPIC.lastIndexOf('/', END - 1);
+        return STATUS_TOPIC.substring(START + 1, END);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static abstract class Client {
+        final int             index;
+        final LatencyRecorder recorder;
+        final Map<Long, Long> pending;
+        final AtomicLong      sent;
+        final AtomicLong      failed;
+        final AtomicLong      reconnectTime;
+        volatile long         dropTime;
+
+
+        Client(final int INDEX, final LatencyRecorder RECORDER) {
+            index         = INDEX;
+            recorder      = RECORDER;
+            pending       = new ConcurrentHashMap<>();
+            sent          = new AtomicLong(0);
+            failed        = new AtomicLong(0);
+            reconnectTime = new AtomicLong(0);
+        }
+
+        abstract String getName();
+        abstract void connect() throws Exception;
+        abstract void disconnect();
+        abstract boolean send(String LAMP_ID, int RGB);
+
+        void run(final int MESSAGES, final int RATE, final int LAMPS) {
+            final long INTERVAL = RATE > 0 ? 1_000_000_000L / RATE : 0;
+            final long START    = System.nanoTime();
+            for (int i = 0 ; i < MESSAGES ; i++) {
+                if (INTERVAL > 0) {
+                    final long WAIT = START + i * INTERVAL - System.nanoTime();
+                    if (WAIT > 0) { LockSupport.parkNanos(WAIT); }
+                }
+                final String LAMP_ID = Integer.toString(i % LAMPS + 1);
+                final int    RGB     = colorOf(index, i);
+                final long   KEY     = keyOf(LAMP_ID, RGB);
+                pending.put(KEY, System.nanoTime());
+                if (send(LAMP_ID, RGB)) {
+                    sent.incrementAndGet();
+                } else {
+                    pending.remove(KEY);
+                    failed.incrementAndGet();
+                }
+            }
+        }
+
+        void onEcho(final String LAMP_ID, final int RGB) {
+            final Long SENT = pending.remove(keyOf(LAMP_ID, RGB));
+            if (null != SENT) { recorder.record(System.nanoTime() - SENT); }
+        }
+
+        void onReconnected() {
+            final long DROP = dropTime;
+            if (DROP > 0) { reconnectTime.compareAndSet(0, System.nanoTime() - DROP); }
+        }
+    }
+
+    private static class PahoClient extends Client implements MqttCallback {
+        private final MqttAsyncClient          client;
+        private final ScheduledExecutorService scheduler;
+        private final MqttConnectOptions       options;
+
+
+        PahoClient(final int INDEX, final LatencyRecorder RECORDER, final String ADDRESS, final ScheduledExecutorService SCHEDULER) throws MqttException {
+            super(INDEX, RECORDER);
+            client    = new MqttAsyncClient(ADDRESS, "driver-" + INDEX, new MemoryPersistence());
+            scheduler = SCHEDULER;
+            options   = new MqttConnectOptions();
+            options.setCleanSession(true);
+            client.setCallback(this);
+        }
+
+        @Override String getName() { return "Paho client " + index; }
+
+        @Override void connect() throws MqttException {
+            client.connect(options).waitForCompletion();
+            client.subscribe(PREFIX + "/+/msg", 0).waitForCompletion();
+        }
+
+        @Override void disconnect() {
+            try {
+                client.disconnect().waitForCompletion(1000);
+            } catch (MqttException exception) {}
+        }
+
+        @Override boolean send(final String LAMP_ID, final int RGB) {
+            final byte[] PAYLOAD = new byte[ColorCodec.TEXT_LENGTH];
+            ColorCodec.encodeText(RGB, PAYLOAD, 0);
+            try {
+                client.publish(PREFIX + "/" + LAMP_ID, PAYLOAD, 0, false);
+                return true;
+            } catch (MqttException exception) {
+                return false;
+            }
+        }
+
+        @Override public void messageArrived(final String TOPIC, final MqttMessage MESSAGE) {
+            onEcho(lampIdOf(TOPIC), ColorCodec.decode(MESSAGE.getPayload(), ColorCodec.Format.TEXT, 0));
+        }
+
+        @Override public void connectionLost(final Throwable CAUSE) { scheduler.schedule(this::reconnect, RECONNECT_DELAY, TimeUnit.MILLISECONDS); }
+
+        private void reconnect() {
+            try {
+                connect();
+                onReconnected();
+            } catch (MqttException exception) {
+                scheduler.schedule(this::reconnect, RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override public void deliveryComplete(final IMqttDeliveryToken TOKEN) {}
+    }
+
+    private static class ManagerClient extends Client implements LampListener {
+        private final LoopbackBroker broker;
+        private final int            lampCount;
+
+
+        ManagerClient(final int INDEX, final LatencyRecorder RECORDER, final LoopbackBroker BROKER, final int LAMPS) {
+            super(INDEX, RECORDER);
+            broker    = BROKER;
+            lampCount = LAMPS;
+        }
+
+        @Override String getName() { return "MqttManager"; }
+
+        @Override void connect() {
+            MqttManager.INSTANCE.setBrokerAddress(broker.getAddress());
+            MqttManager.INSTANCE.setBrokerPort(broker.getPort());
+            MqttManager.INSTANCE.setClientId("driver-manager");
+            MqttManager.INSTANCE.setLampTopicPrefix(PREFIX);
+            MqttManager.INSTANCE.setReconnectDelays(RECONNECT_DELAY, RECONNECT_DELAY * 20);
+            for (int i = 1 ; i <= lampCount ; i++) { MqttManager.INSTANCE.registerLamp(Integer.toString(i), this); }
+            MqttManager.INSTANCE.addMqttEventListener(e -> { if (MqttEventType.CONNECTED == e.TYPE) { onReconnected(); } });
+            MqttManager.INSTANCE.connect();
+        }
+
+        @Override void disconnect() { MqttManager.INSTANCE.disconnect(1000); }
+
+        @Override boolean send(final String LAMP_ID, final int RGB) {
+            MqttDelivery delivery = MqttManager.INSTANCE.publishColor(MqttManager.INSTANCE.getLamp(LAMP_ID), 0xFF000000 | RGB);
+            return MqttDelivery.State.FAILED != delivery.getState();
+        }
+
+        @Override public void onCommand(final Lamp LAMP, final MqttMessage MESSAGE) {}
+
+        @Override public void onStatus(final Lamp LAMP, final MqttMessage MESSAGE) {
+            onEcho(LAMP.ID, ColorCodec.decode(MESSAGE.getPayload(), ColorCodec.Format.TEXT, 0));
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Minimal in process MQTT 3.1.1 broker on the loopback interface, only meant
+ * for load and latency tests without a real broker.
+ * Supported: CONNECT, PUBLISH (QoS 0, 1, 2 inbound), SUBSCRIBE and UNSUBSCRIBE
+ * with + and # wildcards, retained messages, PINGREQ and DISCONNECT.
+ * Messages are always forwarded with QoS 0, there are no persistent sessions,
+ * no wills and no authentication.
+ */
+public class LoopbackBroker {
+    private static final int                 CONNECT     = 1;
+    private static final int                 PUBLISH     = 3;
+    private static final int                 PUBACK      = 4;
+    private static final int                 PUBREC      = 5;
+    private static final int                 PUBREL      = 6;
+    private static final int                 PUBCOMP     = 7;
+    private static final int                 SUBSCRIBE   = 8;
+    private static final int                 UNSUBSCRIBE = 10;
+    private static final int                 PINGREQ     = 12;
+    private static final int                 DISCONNECT  = 14;
+    private final        ServerSocket        serverSocket;
+    private final        List<Session>       sessions;
+    private final        Map<String, byte[]> retained;
+    private final        AtomicLong          receivedMessages;
+    private final        AtomicLong          forwardedMessages;
+    private volatile     boolean             running;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param PORT the port to listen on, 0 picks a free port
+     * @throws IOException
+     */
+    public LoopbackBroker(final int PORT) throws IOException {
+        serverSocket      = new ServerSocket(PORT, 128, InetAddress.getLoopbackAddress());
+        sessions          = new CopyOnWriteArrayList<>();
+        retained          = new ConcurrentHashMap<>();
+        receivedMessages  = new AtomicLong(0);
+        forwardedMessages = new AtomicLong(0);
+    }
+
+
+    // ******************** Methods *******************************************
+    public void start() {
+        running = true;
+        Thread acceptor = new Thread(this::accept, "Loopback Broker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() {
+        running = false;
+        try { serverSocket.close(); } catch (IOException exception) {}
+        disconnectAll();
+    }
+
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    public String getAddress() { return "tcp://" + serverSocket.getInetAddress().getHostAddress(); }
+
+    public int getSessionCount() { return sessions.size(); }
+
+    public long getReceivedMessages() { return receivedMessages.get(); }
+
+    public long getForwardedMessages() { return forwardedMessages.get(); }
+
+    /**
+     * Drops all client connections without a DISCONNECT packet, the clients
+     * will see a lost connection, e.g. to test the reconnect behavior.
+     */
+    public void disconnectAll() { for (Session session : sessions) { session.close(); } }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                sessions.add(session);
+                Thread reader = new Thread(session::read, "Loopback Session " + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException exception) {
+                if (running) { System.err.println("Broker accept failed: " + exception.getMessage()); }
+            }
+        }
+    }
+
+    private void forward(final String TOPIC, final byte[] PAYLOAD, final boolean RETAIN) {
+        receivedMessages.incrementAndGet();
+        if (RETAIN) {
+            if (0 == PAYLOAD.length) { retained.remove(TOPIC); } else { retained.put(TOPIC, PAYLOAD); }
+        }
+        for (Session session : sessions) {
+            if (session.isSubscribedTo(TOPIC)) {
+                session.sendPublish(TOPIC, PAYLOAD, false);
+                forwardedMessages.incrementAndGet();
+            }
+        }
+    }
+
+    static boolean matches(final String FILTER, final String TOPIC) {
+        if (FILTER.equals(TOPIC)) return true;
+        if (TOPIC.startsWith("$")) return false;
+        final String[] FILTER_LEVELS = FILTER.split("/", -1);
+        final String[] TOPIC_LEVELS  = TOPIC.split("/", -1);
+        for (int i = 0 ; i < FILTER_LEVELS.length ; i++) {
+            if ("#".equals(FILTER_LEVELS[i])) return true;
+            if (i >= TOPIC_LEVELS.length) return false;
+            if (!"+".equals(FILTER_LEVELS[i]) && !FILTER_LEVELS[i].equals(TOPIC_LEVELS[i])) return false;
+        }
+        return FILTER_LEVELS.length == TOPIC_LEVELS.length;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private class Session {
+        private final Socket          socket;
+        private final Set<String>     filters;
+        private final DataInputStream in;
+        private final OutputStream    out;
+
+
+        Session(final Socket SOCKET) throws IOException {
+            socket  = SOCKET;
+            filters = new CopyOnWriteArraySet<>();
+            in      = new DataInputStream(new BufferedInputStream(SOCKET.getInputStream()));
+            out     = new BufferedOutputStream(SOCKET.getOutputStream());
+        }
+
+        boolean isSubscribedTo(final String TOPIC) {
+            for (String filter : filters) { if (matches(filter, TOPIC)) return true; }
+            return false;
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    final int    HEADER = in.readUnsignedByte();
+                    final int    TYPE   = HEADER >> 4;
+                    final byte[] BODY   = new byte[readRemainingLength()];
+                    in.readFully(BODY);
+                    switch(TYPE) {
+                        case CONNECT    : send(0x20, 0, 0); break; // CONNACK, no session present, accepted
+                        case PUBLISH    : handlePublish(HEADER, BODY); break;
+                        case PUBREL     : send(PUBCOMP << 4, BODY[0], BODY[1]); break;
+                        case PUBACK     : break;
+                        case PUBCOMP    : break;
+                        case SUBSCRIBE  : handleSubscribe(BODY); break;
+                        case UNSUBSCRIBE: handleUnsubscribe(BODY); break;
+                        case PINGREQ    : send(0xD0); break;
+                        case DISCONNECT : close(); return;
+                        default         : close(); return;
+                    }
+                }
+            } catch (EOFException | SocketException exception) {
+                close();
+            } catch (IOException exception) {
+                System.err.println("Broker session failed: " + exception.getMessage());
+                close();
+            }
+        }
+
+        private void handlePublish(final int HEADER, final byte[] BODY) throws IOException {
+            final int    QOS    = (HEADER >> 1) & 0x03;
+            final int    LENGTH = readShort(BODY, 0);
+            final String TOPIC  = new String(BODY, 2, LENGTH, StandardCharsets.UTF_8);
+            int offset = 2 + LENGTH;
+            if (QOS > 0) {
+                final byte ID_MSB = BODY[offset];
+                final byte ID_LSB = BODY[offset + 1];
+                offset += 2;
+                send((QOS == 1 ? PUBACK : PUBREC) << 4, ID_MSB, ID_LSB);
+            }
+            final byte[] PAYLOAD = new byte[BODY.length - offset];
+            System.arraycopy(BODY, offset, PAYLOAD, 0, PAYLOAD.length);
+            forward(TOPIC, PAYLOAD, 0 != (HEADER & 0x01));
+        }
+
+        private void handleSubscribe(final byte[] BODY) throws IOException {
+            int    offset  = 2;
+            int    count   = 0;
+            byte[] granted = new byte[BODY.length];
+            while (offset < BODY.length) {
+                final int    LENGTH = readShort(BODY, offset);
+                final String FILTER = new String(BODY, offset + 2, LENGTH, StandardCharsets.UTF_8);
+                offset += 2 + LENGTH + 1; // skip the requested QoS, everything is forwarded with QoS 0
+                filters.add(FILTER);
+                granted[count++] = 0;
+            }
+            byte[] suback = new byte[2 + count];
+            suback[0] = BODY[0];
+            suback[1] = BODY[1];
+            System.arraycopy(granted, 0, suback, 2, count);
+            send(0x90, suback);
+            for (Map.Entry<String, byte[]> entry : retained.entrySet()) {
+                if (isSubscribedTo(entry.getKey())) { sendPublish(entry.getKey(), entry.getValue(), true); }
+            }
+        }
+
+        private void handleUnsubscribe(final byte[] BODY) throws IOException {
+            int offset = 2;
+            while (offset < BODY.length) {
+                final int LENGTH = readShort(BODY, offset);
+                filters.remove(new String(BODY, offset + 2, LENGTH, StandardCharsets.UTF_8));
+                offset += 2 + LENGTH;
+            }
+            send(0xB0, BODY[0], BODY[1]);
+        }
+
+        void sendPublish(final String TOPIC, final byte[] PAYLOAD, final boolean RETAIN) {
+            final byte[] NAME = TOPIC.getBytes(StandardCharsets.UTF_8);
+            final byte[] BODY = new byte[2 + NAME.length + PAYLOAD.length];
+            BODY[0] = (byte) (NAME.length >> 8);
+            BODY[1] = (byte) NAME.length;
+            System.arraycopy(NAME, 0, BODY, 2, NAME.length);
+            System.arraycopy(PAYLOAD, 0, BODY, 2 + NAME.length, PAYLOAD.length);
+            try {
+                send(PUBLISH << 4 | (RETAIN ? 0x01 : 0x00), BODY);
+            } catch (IOException exception) {
+                close();
+            }
+        }
+
+        private void send(final int HEADER, final int... BODY) throws IOException {
+            byte[] body = new byte[BODY.length];
+            for (int i = 0 ; i < BODY.length ; i++) { body[i] = (byte) BODY[i]; }
+            send(HEADER, body);
+        }
+        private synchronized void send(final int HEADER, final byte[] BODY) throws IOException {
+            out.write(HEADER);
+            int length = BODY.length;
+            do {
+                int digit = length % 128;
+                length /= 128;
+                if (length > 0) { digit |= 0x80; }
+                out.write(digit);
+            } while (length > 0);
+            out.write(BODY);
+            out.flush();
+        }
+
+        private int readRemainingLength() throws IOException {
+            int length     = 0;
+            int multiplier = 1;
+            int digit;
+            do {
+                digit       = in.readUnsignedByte();
+                length     += (digit & 0x7F) * multiplier;
+                multiplier *= 128;
+            } while ((digit & 0x80) != 0);
+            return length;
+        }
+
+        private int readShort(final byte[] BYTES, final int OFFSET) { return (BYTES[OFFSET] & 0xFF) << 8 | (BYTES[OFFSET + 1] & 0xFF); }
+
+        void close() {
+            sessions.remove(this);
+            try { socket.close(); } catch (IOException exception) {}
+        }
+    }
+}
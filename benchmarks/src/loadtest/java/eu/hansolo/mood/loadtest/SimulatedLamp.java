@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.loadtest;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Behaves like the MoodFX.ino firmware: listens for "rrggbb" and "mood" on
+ * PREFIX/ID and publishes its color as "r,g,b" on PREFIX/ID/msg while in
+ * mood mode, cycling through the same 768 step hue wheel.
+ * In contrast to the firmware it also echoes every color command right away,
+ * that's what the load driver measures the latency with.
+ */
+public class SimulatedLamp implements MqttCallback {
+    private static final int                      MAX_BRIGHT      = 190;
+    private static final String                   MOOD_COMMAND    = "mood";
+    private static final long                     RECONNECT_DELAY = 100;
+    private final        String                   commandTopic;
+    private final        String                   statusTopic;
+    private final        MqttAsyncClient          client;
+    private final        ScheduledExecutorService scheduler;
+    private final        long                     moodInterval;
+    private volatile     ScheduledFuture<?>       moodTask;
+    private volatile     int                      red;
+    private volatile     int                      green;
+    private volatile     int                      blue;
+    private              int                      hueIndex;
+
+
+    // ******************** Constructors **************************************
+    public SimulatedLamp(final String BROKER, final String PREFIX, final String ID, final ScheduledExecutorService SCHEDULER, final long MOOD_INTERVAL) throws MqttException {
+        commandTopic = PREFIX + "/" + ID;
+        statusTopic  = PREFIX + "/" + ID + "/msg";
+        client       = new MqttAsyncClient(BROKER, "lamp-" + ID, new MemoryPersistence());
+        scheduler    = SCHEDULER;
+        moodInterval = MOOD_INTERVAL;
+        red          = 0;
+        green        = 126;
+        blue         = 126;
+        client.setCallback(this);
+    }
+
+
+    // ******************** Methods *******************************************
+    public void connect() throws MqttException {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        client.connect(options).waitForCompletion();
+        client.subscribe(commandTopic, 0).waitForCompletion();
+    }
+
+    public void disconnect() {
+        stopMood();
+        try {
+            client.disconnect().waitForCompletion(1000);
+        } catch (MqttException exception) {}
+    }
+
+    public boolean isConnected() { return client.isConnected(); }
+
+    private void publishColor() {
+        if (!client.isConnected()) return;
+        try {
+            client.publish(statusTopic, (red + "," + green + "," + blue).getBytes(StandardCharsets.US_ASCII), 0, false);
+        } catch (MqttException exception) {}
+    }
+
+    private void startMood() {
+        if (null != moodTask) return;
+        moodTask = scheduler.scheduleAtFixedRate(() -> {
+            moodTransition();
+            publishColor();
+        }, moodInterval, moodInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopMood() {
+        ScheduledFuture<?> task = moodTask;
+        moodTask = null;
+        if (null != task) { task.cancel(false); }
+    }
+
+    private synchronized void moodTransition() {
+        hueIndex++;
+        if (hueIndex > 768) { hueIndex = 0; }
+        hsb2rgb(hueIndex, 255, MAX_BRIGHT);
+    }
+
+    // Same integer math as hsb2rgb() in MoodFX.ino
+    private void hsb2rgb(final int INDEX, final int SAT, final int BRIGHT) {
+        final int HUE         = INDEX % 768;
+        final int HUE_MOD     = HUE % 256;
+        final int INVERSE_SAT = SAT ^ 255;
+        int r;
+        int g;
+        int b;
+        if (HUE < 256) {
+            r = HUE_MOD ^ 255;
+            g = HUE_MOD;
+            b = 0;
+        } else if (HUE < 512) {
+            r = 0;
+            g = HUE_MOD ^ 255;
+            b = HUE_MOD;
+        } else {
+            r = HUE_MOD;
+            g = 0;
+            b = HUE_MOD ^ 255;
+        }
+        red   = (((r * SAT) / 255) + INVERSE_SAT) * BRIGHT / 255;
+        green = (((g * SAT) / 255) + INVERSE_SAT) * BRIGHT / 255;
+        blue  = (((b * SAT) / 255) + INVERSE_SAT) * BRIGHT / 255;
+    }
+
+
+    // ******************** Event handling ************************************
+    @Override public void messageArrived(final String TOPIC, final MqttMessage MESSAGE) {
+        final String TEXT = new String(MESSAGE.getPayload(), StandardCharsets.US_ASCII);
+        if (MOOD_COMMAND.equals(TEXT)) {
+            startMood();
+            return;
+        }
+        stopMood();
+        try {
+            final int HEX = Integer.parseInt(TEXT, 16);
+            red   = HEX >> 16 & 0xFF;
+            green = HEX >> 8 & 0xFF;
+            blue  = HEX & 0xFF;
+        } catch (NumberFormatException exception) {
+            red   = 0;
+            green = 0;
+            blue  = 0;
+        }
+        publishColor();
+    }
+
+    // Like the firmware the lamp keeps trying to reconnect
+    @Override public void connectionLost(final Throwable CAUSE) {
+        stopMood();
+        scheduler.schedule(this::reconnect, RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect() {
+        try {
+            connect();
+        } catch (MqttException exception) {
+            scheduler.schedule(this::reconnect, RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override public void deliveryComplete(final IMqttDeliveryToken TOKEN) {}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Registers the MqttMetrics as MXBean "eu.hansolo.mood:type=MqttMetrics", so they can
+ * be watched with JConsole or VisualVM. Lives in the desktop source set because
+ * javax.management is not available on Android and iOS.
+ */
+public class MqttMetricsJmx implements MqttMetricsMXBean {
+    public static final String      OBJECT_NAME = "eu.hansolo.mood:type=MqttMetrics";
+    private final       MqttMetrics metrics;
+
+
+    // ******************** Constructors **************************************
+    private MqttMetricsJmx(final MqttMetrics METRICS) { metrics = METRICS; }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Registers the given metrics. The app works without them, so a failure is not thrown.
+     * @param METRICS
+     * @return true if the metrics have been registered
+     */
+    public static boolean register(final MqttMetrics METRICS) {
+        try {
+            final MBeanServer SERVER = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName  NAME   = new ObjectName(OBJECT_NAME);
+            if (SERVER.isRegistered(NAME)) { SERVER.unregisterMBean(NAME); }
+            SERVER.registerMBean(new MqttMetricsJmx(METRICS), NAME);
+            return true;
+        } catch (JMException exception) {
+            return false;
+        }
+    }
+
+    @Override public String getConnectionState() { return metrics.getConnectionState().name(); }
+
+    @Override public long getConnectCount() { return metrics.getConnectLatency().getCount(); }
+    @Override public double getConnectLatencyP50Millis() { return metrics.getConnectLatency().getPercentileMillis(50); }
+    @Override public double getConnectLatencyP99Millis() { return metrics.getConnectLatency().getPercentileMillis(99); }
+    @Override public double getConnectLatencyMaxMillis() { return metrics.getConnectLatency().getMaxMillis(); }
+
+    @Override public long getOutageCount() { return metrics.getDisconnectedTime().getCount(); }
+    @Override public double getDisconnectedTotalMillis() { return metrics.getDisconnectedTime().getTotalMillis(); }
+    @Override public double getDisconnectedMaxMillis() { return metrics.getDisconnectedTime().getMaxMillis(); }
+
+    @Override public long getReconnectAttempts() { return metrics.getReconnectAttempts(); }
+
+    @Override public long getPublishSuccessCount() { return metrics.getPublishSuccessCount(); }
+    @Override public long getPublishFailureCount() { return metrics.getPublishFailureCount(); }
+
+    @Override public int getInFlightCount() { return metrics.getInFlightCount(); }
+    @Override public int getQueuedCount() { return metrics.getQueuedCount(); }
+}
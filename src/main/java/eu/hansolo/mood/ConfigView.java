@@ -17,7 +17,6 @@
 package eu.hansolo.mood;
 
 import com.gluonhq.charm.down.common.JavaFXPlatform;
-import com.gluonhq.charm.down.common.PlatformFactory;
 import com.gluonhq.charm.glisten.control.AppBar;
 import com.gluonhq.charm.glisten.layout.responsive.grid.Offset;
 import com.gluonhq.charm.glisten.mvc.View;
@@ -26,8 +25,8 @@ import eu.hansolo.mood.controls.Switch;
 import eu.hansolo.mood.mqtt.MqttEvent;
 import eu.hansolo.mood.mqtt.MqttEvent.MqttEventType;
 import eu.hansolo.mood.mqtt.MqttManager;
-import eu.hansolo.mood.mqtt.Topic;
 import eu.hansolo.mood.transitions.SlideInRightTransition;
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
@@ -47,17 +46,6 @@ import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.Reader;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.Properties;
-import java.util.Random;
 import java.util.UUID;
 
 import static com.gluonhq.charm.glisten.visual.GlistenStyleClasses.LIGHT;
@@ -69,11 +57,8 @@ import static com.gluonhq.charm.glisten.visual.GlistenStyleClasses.applyStyleCla
  * Created by hansolo on 26.02.16.
  */
 public class ConfigView extends View {
-    private static final String PROPERTIES_FILE_NAME = "settings.properties";
-    private static final Random RND                  = new Random();
     private static       double currentOffset;
-    private File                localStoragePath;
-    private Properties          properties;
+    private SettingsStore       settingsStore;
     private Switch              connectButton;
     private TextField           brokerAddressField;
     private TextField           brokerPortField;
@@ -86,20 +71,18 @@ public class ConfigView extends View {
 
 
     // ******************** Constructors **************************************
-    public ConfigView(final String NAME) {
+    /**
+     * @param NAME
+     * @param SETTINGS_STORE has to be loading or loaded already
+     */
+    public ConfigView(final String NAME, final SettingsStore SETTINGS_STORE) {
         super(NAME);
-
-        try {
-            localStoragePath = PlatformFactory.getPlatform().getPrivateStorage();
-        } catch (IOException e) {
-            String tmp = System.getProperty("java.io.tmpdir");
-            localStoragePath = new File(tmp);
-        }
-        properties = createProperties();
-        retrieveConfig();
+        settingsStore = SETTINGS_STORE;
 
         init();
         registerListeners();
+        // The fields show the defaults until the settings file has been read
+        settingsStore.whenLoaded(settings -> Platform.runLater(() -> applySettings(settings)));
 
         setBackground(new Background(new BackgroundFill(MoodFX.BACKGROUND_COLOR.brighter(), CornerRadii.EMPTY, Insets.EMPTY)));
         setCenter(configPane);
@@ -210,7 +193,7 @@ public class ConfigView extends View {
 
         gridPane.setAlignment(Pos.CENTER);
 
-        setFieldsFromProperties();
+        applySettings(settingsStore.get());
 
         AnchorPane.setTopAnchor(gridPane, 0d);
         AnchorPane.setRightAnchor(gridPane, 0d);
@@ -225,46 +208,17 @@ public class ConfigView extends View {
     private void registerListeners() {
         connectButton.setOnMouseClicked(e -> {
             if (connectButton.isSelected()) {
-                MqttManager.INSTANCE.setBrokerAddress(brokerAddressField.getText());
-                MqttManager.INSTANCE.setBrokerPort(Integer.parseInt(brokerPortField.getText()));
-                MqttManager.INSTANCE.setClientId(clientIdField.getText());
-                MqttManager.INSTANCE.setUserName(userNameField.getText());
-                MqttManager.INSTANCE.setPassword(passwordField.getText());
-                MqttManager.INSTANCE.setHuzzahIncomingTopic(new Topic(new StringBuilder(topicField.getText()).append("/")
-                                                                                                             .append(lampIdField.getText())
-                                                                                                             .toString()));
-                saveConfig();
+                final Settings SETTINGS = getSettingsFromFields();
+                MoodFX.configureMqttManager(SETTINGS);
+                settingsStore.save(SETTINGS);
                 new Thread(() -> { if (MqttManager.INSTANCE.isConnected()) { MqttManager.INSTANCE.reInit(); } else { MqttManager.INSTANCE.connect(); }}).start();
             } else {
-                if (MqttManager.INSTANCE.isConnected()) MqttManager.INSTANCE.disconnect(2000);
-                MqttManager.INSTANCE.fireMqttEvent(MqttManager.DISCONNECT_EVENT);
+                // Also stops a running reconnection
+                MqttManager.INSTANCE.disconnect(2000);
             }
         });
     }
 
-    private String getUniqueId() {
-        String uniqueId;
-        if (JavaFXPlatform.isDesktop()) {
-            try {
-                InetAddress      ip      = InetAddress.getLocalHost();
-                NetworkInterface network = NetworkInterface.getByInetAddress(ip);
-                byte[]           mac     = network.getHardwareAddress();
-                StringBuilder    sb      = new StringBuilder();
-                for (int i = 0; i < mac.length; i++) { sb.append(String.format("%02X%s", mac[i], (i < mac.length - 1) ? "-" : "")); }
-                uniqueId = sb.toString();
-            } catch (UnknownHostException | SocketException e) {
-                uniqueId = "MoodFXDesktop" + RND.nextInt(1000);
-            }
-        } else if (JavaFXPlatform.isAndroid()) {
-            uniqueId = "MoodFXAndroid" + RND.nextInt(1000);
-        } else if (JavaFXPlatform.isIOS()) {
-            uniqueId = "MoodFXiOS" + RND.nextInt(1000);
-        } else {
-            uniqueId = "MoodFX" + RND.nextInt(1000);
-        }
-        return uniqueId;
-    }
-
     private void moveToFoV(final Node NODE, final boolean WAS_FOCUSED, final boolean IS_FOCUSED) {
         if (IS_FOCUSED && !WAS_FOCUSED) {         // Got Focus
             if (!JavaFXPlatform.isDesktop()) configPane.setTranslateY(-NODE.getLayoutY());
@@ -277,58 +231,24 @@ public class ConfigView extends View {
 
 
     // ******************** Properties/Config *********************************
-    private void retrieveConfig() {
-        Reader reader = null;
-        try {
-            File file = new File(localStoragePath, PROPERTIES_FILE_NAME);
-            reader = new FileReader(file);
-            properties.load(reader);
-        } catch (IOException ex) {
-        } finally {
-            try { if (reader != null) { reader.close(); } } catch (IOException ex) {}
-        }
-    }
-    private void saveConfig() {
-        if (null == properties) properties = new Properties();
-        try {
-            properties.setProperty("broker_address", brokerAddressField.getText());
-            properties.setProperty("broker_port", brokerPortField.getText());
-            properties.setProperty("client_id", clientIdField.getText());
-            properties.setProperty("user_name", userNameField.getText());
-            properties.setProperty("password", passwordField.getText());
-            properties.setProperty("lamp_id", lampIdField.getText());
-            properties.setProperty("topic", topicField.getText());
-            File file = new File(localStoragePath, PROPERTIES_FILE_NAME);
-            properties.store(new FileWriter(file), PROPERTIES_FILE_NAME);
-        } catch (IOException ex) {}
-    }
-    private Properties createProperties() {
-        Properties p = new Properties();
-        p.setProperty("broker_address", "iot.eclipse.org");
-        p.setProperty("broker_port", "1883");
-        p.setProperty("client_id", getUniqueId());
-        p.setProperty("user_name", "");
-        p.setProperty("password", "");
-        p.setProperty("lamp_id", "1");
-        p.setProperty("topic", "huzzah");
-        return p;
+    // Only hands the settings over to the store, it writes them in the background
+    private void saveConfig() { settingsStore.save(getSettingsFromFields()); }
+    private Settings getSettingsFromFields() {
+        return new Settings(brokerAddressField.getText(),
+                            Settings.parsePort(brokerPortField.getText(), settingsStore.get().BROKER_PORT),
+                            clientIdField.getText(),
+                            userNameField.getText(),
+                            passwordField.getText(),
+                            lampIdField.getText(),
+                            topicField.getText());
     }
-    private void setFieldsFromProperties() {
-        brokerAddressField.setText(properties.getProperty("broker_address"));
-        brokerPortField.setText(properties.getProperty("broker_port"));
-        clientIdField.setText(properties.getProperty("client_id"));
-        userNameField.setText(properties.getProperty("user_name"));
-        passwordField.setText(properties.getProperty("password"));
-        lampIdField.setText(properties.getProperty("lamp_id"));
-        topicField.setText(properties.getProperty("topic"));
-
-        MqttManager.INSTANCE.setBrokerAddress(properties.getProperty("broker_address"));
-        MqttManager.INSTANCE.setBrokerPort(Integer.parseInt(properties.getProperty("broker_port")));
-        MqttManager.INSTANCE.setClientId(properties.getProperty("client_id"));
-        MqttManager.INSTANCE.setUserName(properties.getProperty("user_name"));
-        MqttManager.INSTANCE.setPassword(properties.getProperty("password"));
-        MqttManager.INSTANCE.setHuzzahIncomingTopic(new Topic(new StringBuilder(properties.getProperty("topic")).append("/")
-                                                                                                                .append(properties.getProperty("lamp_id"))
-                                                                                                                .toString()));
+    private void applySettings(final Settings SETTINGS) {
+        brokerAddressField.setText(SETTINGS.BROKER_ADDRESS);
+        brokerPortField.setText(Integer.toString(SETTINGS.BROKER_PORT));
+        clientIdField.setText(SETTINGS.CLIENT_ID);
+        userNameField.setText(SETTINGS.USER_NAME);
+        passwordField.setText(SETTINGS.PASSWORD);
+        lampIdField.setText(SETTINGS.LAMP_ID);
+        topicField.setText(SETTINGS.TOPIC);
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Hands updates from background threads over to the FX application thread.
+ * Only the latest update per key (e.g. per lamp) is kept and all pending
+ * updates are applied once per pulse instead of one Platform.runLater() per
+ * message. The updates are applied in the order of their last submission, so
+ * updates with different keys that change the same state are applied in the
+ * order they arrived. The timer only runs while there are pending updates.
+ */
+public class FxUpdateBridge {
+    private final Map<String, Runnable> pendingUpdates; // also the lock
+    private final List<Runnable>        updatesToApply; // only used on the FX application thread
+    private final AtomicBoolean         running;
+    private final AtomicLong            coalescedUpdates;
+    private final AtomicLong            appliedUpdates;
+    private final AnimationTimer        timer;
+
+
+    // ******************** Constructors **************************************
+    public FxUpdateBridge() {
+        pendingUpdates   = new LinkedHashMap<>();
+        updatesToApply   = new ArrayList<>();
+        running          = new AtomicBoolean(false);
+        coalescedUpdates = new AtomicLong(0);
+        appliedUpdates   = new AtomicLong(0);
+        timer            = new AnimationTimer() {
+            @Override public void handle(final long NOW) { applyPendingUpdates(); }
+        };
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Schedules the given update to be run on the FX application thread with the
+     * next pulse. A pending update with the same key that was not applied yet
+     * will be replaced and the new one moves behind the other pending updates.
+     * Can be called from any thread.
+     * @param KEY
+     * @param UPDATE
+     */
+    public void submit(final String KEY, final Runnable UPDATE) {
+        synchronized (pendingUpdates) {
+            if (null != pendingUpdates.remove(KEY)) { coalescedUpdates.incrementAndGet(); }
+            pendingUpdates.put(KEY, UPDATE);
+        }
+        if (running.compareAndSet(false, true)) { Platform.runLater(timer::start); }
+    }
+
+    /**
+     * @return the number of updates that were replaced by a newer update before they were applied
+     */
+    public long getCoalescedUpdates() { return coalescedUpdates.get(); }
+
+    public long getAppliedUpdates() { return appliedUpdates.get(); }
+
+    private void applyPendingUpdates() {
+        // Updates that are submitted while these run are applied with the next pulse
+        synchronized (pendingUpdates) {
+            updatesToApply.addAll(pendingUpdates.values());
+            pendingUpdates.clear();
+        }
+        try {
+            for (Runnable update : updatesToApply) {
+                update.run();
+                appliedUpdates.incrementAndGet();
+            }
+        } finally {
+            updatesToApply.clear();
+        }
+        if (isEmpty()) {
+            timer.stop();
+            running.set(false);
+            // An update might have been submitted while stopping
+            if (!isEmpty() && running.compareAndSet(false, true)) { timer.start(); }
+        }
+    }
+
+    private boolean isEmpty() {
+        synchronized (pendingUpdates) { return pendingUpdates.isEmpty(); }
+    }
+}
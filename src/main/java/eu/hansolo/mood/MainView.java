@@ -19,11 +19,13 @@ package eu.hansolo.mood;
 import com.gluonhq.charm.glisten.control.AppBar;
 import com.gluonhq.charm.glisten.mvc.View;
 import com.gluonhq.charm.glisten.visual.MaterialDesignIcon;
+import eu.hansolo.mood.mqtt.ColorCodec;
+import eu.hansolo.mood.mqtt.Lamp;
+import eu.hansolo.mood.mqtt.LampListener;
 import eu.hansolo.mood.mqtt.MqttEvent.MqttEventType;
 import eu.hansolo.mood.mqtt.MqttManager;
 import eu.hansolo.mood.controls.ColorRegulator;
 import eu.hansolo.mood.controls.ColorRegulatorBuilder;
-import eu.hansolo.mood.mqtt.Topic;
 import eu.hansolo.mood.transitions.SlideInLeftTransition;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
@@ -35,22 +37,20 @@ import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
-
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 
 /**
  * Created by hansolo on 26.02.16.
  */
 public class MainView extends View {
-    public  static final Topic   HUZZAH_INCOMING = new Topic("huzzah/1", MqttManager.QOS_0);
-    public  static final Topic   HUZZAH_OUTGOING = new Topic("huzzah/1/msg", MqttManager.QOS_0);
-    private static final String  MOOD_COMMAND    = "mood";
-    private static final Pattern RGB_PATTERN     = Pattern.compile("^([0-9]{1,3}),([0-9]{1,3}),([0-9]{1,3})$");
-    private static final Matcher RGB_MATCHER     = RGB_PATTERN.matcher("");
+    private static final String  MOOD_COMMAND   = "mood";
+    // Commands and status updates of a lamp are coalesced separately, one must not replace the other
+    private static final String  COMMAND_SUFFIX = "/cmd";
+    private static final String  STATUS_SUFFIX  = "/status";
     private StackPane            mainPane;
     private ColorRegulator       colorRegulator;
+    private FxUpdateBridge       updateBridge;
 
 
     // ******************** Constructors **************************************
@@ -96,6 +96,8 @@ public class MainView extends View {
         colorRegulator.setDisable(true);
         colorRegulator.setOn(false);
 
+        updateBridge = new FxUpdateBridge();
+
         mainPane = new StackPane(colorRegulator);
         StackPane.setAlignment(colorRegulator, Pos.TOP_CENTER);
         mainPane.setPadding(new Insets(10));
@@ -108,46 +110,54 @@ public class MainView extends View {
             switch(TYPE) {
                 case CONNECTED   : Platform.runLater(() -> colorRegulator.setDisable(false)); break;
                 case DISCONNECTED: Platform.runLater(() -> colorRegulator.setDisable(true)); break;
-                case MESSAGE     : handleMqttMessage(e.TOPIC, e.MESSAGE.toString()); break;
             }
         });
+        MqttManager.INSTANCE.setDefaultLampListener(new LampListener() {
+            @Override public void onCommand(final Lamp LAMP, final MqttMessage MESSAGE) { handleLampCommand(LAMP, MESSAGE.getPayload()); }
+            @Override public void onStatus(final Lamp LAMP, final MqttMessage MESSAGE) { handleLampStatus(LAMP, MESSAGE.getPayload()); }
+        });
     }
 
 
     // ******************** Methods *******************************************
-    private void handleMqttMessage(final String TOPIC, final String MESSAGE) {
-        if (MqttManager.INSTANCE.getHuzzahOutgoingTopic().NAME.equals(TOPIC)) {
+    // Called on the MQTT dispatcher thread, only the latest state per lamp will be applied once per pulse
+    private void handleLampStatus(final Lamp LAMP, final byte[] PAYLOAD) {
+        final int ARGB = ColorCodec.decode(PAYLOAD, LAMP.getFormat(), 0xFF000000);
+        //Brighten up the color because max value will be 190 instead of 255
+        final Color COLOR = Color.rgb((ARGB >> 16) & 0xFF, (ARGB >> 8) & 0xFF, ARGB & 0xFF).deriveColor(0, 1, 2, 1);
+        updateBridge.submit(LAMP.ID + STATUS_SUFFIX, () -> {
             if (!colorRegulator.isAutomatic()) { colorRegulator.setAutomatic(true); }
-            RGB_MATCHER.reset(MESSAGE);
-            Platform.runLater(() -> {
-                int red   = 0;
-                int green = 0;
-                int blue  = 0;
-                while(RGB_MATCHER.find()) {
-                    try {
-                        red   = Integer.parseInt(RGB_MATCHER.group(1));
-                        green = Integer.parseInt(RGB_MATCHER.group(2));
-                        blue  = Integer.parseInt(RGB_MATCHER.group(3));
-                    } catch (NumberFormatException e) {
-                        red   = 0;
-                        green = 0;
-                        blue  = 0;
-                    }
-                }
-                //Brighten up the color because max value will be 190 instead of 255
-                colorRegulator.setTargetColor(Color.rgb(red, green, blue).deriveColor(0, 1, 2, 1));
-            });
-        } else if ((MqttManager.INSTANCE.getHuzzahIncomingTopic().NAME).equals(TOPIC)) {
-            if (MOOD_COMMAND.equals(MESSAGE)) {
-                if (!colorRegulator.isAutomatic()) { colorRegulator.setAutomatic(true); }
-            } else {
+            colorRegulator.setTargetColor(COLOR);
+        });
+    }
+
+    private void handleLampCommand(final Lamp LAMP, final byte[] PAYLOAD) {
+        if (ColorCodec.isMoodCommand(PAYLOAD)) {
+            updateBridge.submit(LAMP.ID + COMMAND_SUFFIX, () -> { if (!colorRegulator.isAutomatic()) { colorRegulator.setAutomatic(true); } });
+        } else {
+            // Other phones may send text to a binary lamp, so commands are decoded by their content.
+            // Fully transparent is used as marker for an invalid payload
+            final int ARGB = ColorCodec.decode(PAYLOAD, ColorCodec.detectFormat(PAYLOAD, LAMP.getFormat()), 0x00000000);
+            if (0 == ARGB) return;
+            final Color COLOR = Color.rgb((ARGB >> 16) & 0xFF, (ARGB >> 8) & 0xFF, ARGB & 0xFF);
+            updateBridge.submit(LAMP.ID + COMMAND_SUFFIX, () -> {
                 if (colorRegulator.isAutomatic()) { colorRegulator.setAutomatic(false); }
-                colorRegulator.setTargetColor(Color.web("#" + MESSAGE));
-            }
+                colorRegulator.setTargetColor(COLOR);
+            });
+        }
+    }
+
+    private void sendMoodMessage(final boolean ON) {
+        if (ON) {
+            MqttManager.INSTANCE.publish(MOOD_COMMAND);
+        } else {
+            MqttManager.INSTANCE.publishColor(MqttManager.INSTANCE.getDefaultLamp(), toArgb(colorRegulator.getTargetColor()));
         }
     }
+    private void sendOffMessage() { MqttManager.INSTANCE.publishColor(MqttManager.INSTANCE.getDefaultLamp(), 0xFF000000); }
+    private void sendUpdate(final Color COLOR) { MqttManager.INSTANCE.publishLatestColor(MqttManager.INSTANCE.getDefaultLamp(), toArgb(COLOR)); }
 
-    private void sendMoodMessage(final boolean ON) { MqttManager.INSTANCE.publish(ON ? MOOD_COMMAND : colorRegulator.getTargetColor().toString().substring(2, 8)); }
-    private void sendOffMessage() { MqttManager.INSTANCE.publish("000000"); }
-    private void sendUpdate(final Color COLOR) { MqttManager.INSTANCE.publish(COLOR.toString().substring(2, 8)); }
+    private static int toArgb(final Color COLOR) {
+        return 0xFF000000 | (int) Math.round(COLOR.getRed() * 255) << 16 | (int) Math.round(COLOR.getGreen() * 255) << 8 | (int) Math.round(COLOR.getBlue() * 255);
+    }
 }
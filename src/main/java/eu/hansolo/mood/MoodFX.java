@@ -1,24 +1,69 @@
 package eu.hansolo.mood;
 
 import com.gluonhq.charm.down.common.JavaFXPlatform;
+import com.gluonhq.charm.down.common.PlatformFactory;
 import com.gluonhq.charm.glisten.application.MobileApplication;
 import com.gluonhq.charm.glisten.visual.Swatch;
 import eu.hansolo.mood.mqtt.MqttManager;
+import eu.hansolo.mood.mqtt.MqttMetrics;
+import eu.hansolo.mood.mqtt.OutboundJournal;
+import javafx.animation.AnimationTimer;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
 
 public class MoodFX extends MobileApplication {
-    public static final String MAIN_VIEW        = HOME_VIEW;
-    public static final String CONFIG_VIEW      = "CONFIG";
-    public static final Color  BACKGROUND_COLOR = Color.rgb(66, 71, 79);
+    public static final  String          MAIN_VIEW            = HOME_VIEW;
+    public static final  String          CONFIG_VIEW          = "CONFIG";
+    public static final  Color           BACKGROUND_COLOR     = Color.rgb(66, 71, 79);
+    private static final String          PROPERTIES_FILE_NAME = "settings.properties";
+    private static final String          JOURNAL_FILE_NAME    = "outbound.journal";
+    private static final Settings        DEFAULT_SETTINGS     = new Settings("iot.eclipse.org", 1883, "", "", "", "1", "huzzah");
+    private static final String[]        PAHO_CLASSES         = { "org.eclipse.paho.client.mqttv3.MqttAsyncClient",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.ClientComms",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.ClientState",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.CommsSender",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.CommsReceiver",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.TCPNetworkModule",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.wire.MqttConnect",
+                                                                  "org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish" };
+    private static final String          TIMINGS_PROPERTY     = "eu.hansolo.mood.startupTimings"; // -Deu.hansolo.mood.startupTimings=true prints them
+    private static final Random          RND                  = new Random();
+    private              StartupPipeline startup;
+    private              File            localStoragePath;
+    private              SettingsStore   settingsStore;
 
 
     @Override public void init() {
-        addViewFactory(MAIN_VIEW, () -> new MainView(MAIN_VIEW));
-        addViewFactory(CONFIG_VIEW, () -> new ConfigView(CONFIG_VIEW));
+        startup = new StartupPipeline();
+        if (Boolean.getBoolean(TIMINGS_PROPERTY)) { startup.setOnReady(() -> System.out.println(startup)); }
+
+        try {
+            localStoragePath = PlatformFactory.getPlatform().getPrivateStorage();
+        } catch (IOException e) {
+            localStoragePath = new File(System.getProperty("java.io.tmpdir"));
+        }
+        settingsStore = new SettingsStore(new File(localStoragePath, PROPERTIES_FILE_NAME), DEFAULT_SETTINGS);
+
+        // Runs in the background while the main view is built and the first frame is rendered
+        startup.begin("config");
+        settingsStore.whenLoaded(this::settingsLoaded);
+        settingsStore.load();
+        startup.runInBackground("mqtt", this::warmUpMqtt);
+
+        // The config view will only be built when it is shown for the first time
+        addViewFactory(MAIN_VIEW, () -> startup.time("mainView", () -> new MainView(MAIN_VIEW)));
+        addViewFactory(CONFIG_VIEW, () -> startup.time("configView", () -> new ConfigView(CONFIG_VIEW, settingsStore)));
     }
 
     @Override public void postInit(Scene scene) {
@@ -36,10 +81,98 @@ public class MoodFX extends MobileApplication {
                 (scene.getWindow()).setHeight(550);
             }
         }
+
+        new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                stop();
+                startup.mark("firstFrame");
+                startup.allPhasesStarted();
+            }
+        }.start();
     }
 
     @Override public void stop() {
         if (MqttManager.INSTANCE.isConnected()) MqttManager.INSTANCE.disconnect(0);
         System.exit(0);
     }
+
+    /**
+     * @return the timings of the startup phases
+     */
+    public StartupPipeline getStartup() { return startup; }
+
+
+    // ******************** Startup *******************************************
+    // Called on the thread of the settings store, before any view can register for the settings
+    private void settingsLoaded(final Settings SETTINGS) {
+        try {
+            Settings settings = SETTINGS;
+            if (settings.CLIENT_ID.isEmpty()) {
+                // Only needed on the first start, the id will be saved with the settings
+                settings = startup.time("clientId", () -> SETTINGS.withClientId(createClientId()));
+                settingsStore.save(settings);
+            }
+            configureMqttManager(settings);
+        } finally {
+            startup.end("config");
+        }
+    }
+
+    // Loads the Paho classes and creates the manager before the user connects
+    private void warmUpMqtt() {
+        for (String className : PAHO_CLASSES) {
+            try { Class.forName(className); } catch (ClassNotFoundException exception) {}
+        }
+        final MqttManager MANAGER = MqttManager.INSTANCE;
+
+        // Keeps the messages that are published while the broker is not reachable
+        if (null == MANAGER.getOutboundJournal()) {
+            try {
+                MANAGER.setOutboundJournal(new OutboundJournal(new File(localStoragePath, JOURNAL_FILE_NAME), OutboundJournal.DEFAULT_MAX_BYTES));
+            } catch (IOException exception) {}
+        }
+
+        // JMX is only available in the desktop source set
+        if (JavaFXPlatform.isDesktop()) {
+            try {
+                Class.forName("eu.hansolo.mood.mqtt.MqttMetricsJmx").getMethod("register", MqttMetrics.class).invoke(null, MANAGER.getMetrics());
+            } catch (ReflectiveOperationException exception) {}
+        }
+    }
+
+    /**
+     * Can be called from any thread, the setters of the manager are thread safe.
+     * @param SETTINGS
+     */
+    static void configureMqttManager(final Settings SETTINGS) {
+        MqttManager.INSTANCE.setBrokerAddress(SETTINGS.BROKER_ADDRESS);
+        MqttManager.INSTANCE.setBrokerPort(SETTINGS.BROKER_PORT);
+        MqttManager.INSTANCE.setClientId(SETTINGS.CLIENT_ID);
+        MqttManager.INSTANCE.setUserName(SETTINGS.USER_NAME);
+        MqttManager.INSTANCE.setPassword(SETTINGS.PASSWORD);
+        MqttManager.INSTANCE.setLampTopicPrefix(SETTINGS.TOPIC);
+        MqttManager.INSTANCE.setDefaultLampId(SETTINGS.LAMP_ID);
+    }
+
+    private static String createClientId() {
+        if (JavaFXPlatform.isDesktop()) {
+            try {
+                InetAddress      ip      = InetAddress.getLocalHost();
+                NetworkInterface network = NetworkInterface.getByInetAddress(ip);
+                byte[]           mac     = null == network ? null : network.getHardwareAddress();
+                if (null != mac) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < mac.length; i++) { sb.append(String.format("%02X%s", mac[i], (i < mac.length - 1) ? "-" : "")); }
+                    return sb.toString();
+                }
+            } catch (UnknownHostException | SocketException e) {}
+            return "MoodFXDesktop" + RND.nextInt(1000);
+        } else if (JavaFXPlatform.isAndroid()) {
+            return "MoodFXAndroid" + RND.nextInt(1000);
+        } else if (JavaFXPlatform.isIOS()) {
+            return "MoodFXiOS" + RND.nextInt(1000);
+        } else {
+            return "MoodFX" + RND.nextInt(1000);
+        }
+    }
 }
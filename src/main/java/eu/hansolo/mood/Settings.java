@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood;
+
+import java.util.Properties;
+
+
+/**
+ * Immutable snapshot of the app settings. Changes create a new instance,
+ * so a snapshot can be handed to other threads without copying.
+ */
+public final class Settings {
+    public static final String BROKER_ADDRESS_KEY = "broker_address";
+    public static final String BROKER_PORT_KEY    = "broker_port";
+    public static final String CLIENT_ID_KEY      = "client_id";
+    public static final String USER_NAME_KEY      = "user_name";
+    public static final String PASSWORD_KEY       = "password";
+    public static final String LAMP_ID_KEY        = "lamp_id";
+    public static final String TOPIC_KEY          = "topic";
+    public final        String BROKER_ADDRESS;
+    public final        int    BROKER_PORT;
+    public final        String CLIENT_ID;
+    public final        String USER_NAME;
+    public final        String PASSWORD;
+    public final        String LAMP_ID;
+    public final        String TOPIC;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Null values will be stored as empty strings.
+     */
+    public Settings(final String BROKER_ADDRESS, final int BROKER_PORT, final String CLIENT_ID, final String USER_NAME,
+                    final String PASSWORD, final String LAMP_ID, final String TOPIC) {
+        this.BROKER_ADDRESS = null == BROKER_ADDRESS ? "" : BROKER_ADDRESS;
+        this.BROKER_PORT    = BROKER_PORT;
+        this.CLIENT_ID      = null == CLIENT_ID ? "" : CLIENT_ID;
+        this.USER_NAME      = null == USER_NAME ? "" : USER_NAME;
+        this.PASSWORD       = null == PASSWORD ? "" : PASSWORD;
+        this.LAMP_ID        = null == LAMP_ID ? "" : LAMP_ID;
+        this.TOPIC          = null == TOPIC ? "" : TOPIC;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * @param PROPERTIES
+     * @param DEFAULTS used for every key that is missing or invalid
+     * @return the settings from the given properties
+     */
+    public static Settings fromProperties(final Properties PROPERTIES, final Settings DEFAULTS) {
+        return new Settings(PROPERTIES.getProperty(BROKER_ADDRESS_KEY, DEFAULTS.BROKER_ADDRESS),
+                            parsePort(PROPERTIES.getProperty(BROKER_PORT_KEY), DEFAULTS.BROKER_PORT),
+                            PROPERTIES.getProperty(CLIENT_ID_KEY, DEFAULTS.CLIENT_ID),
+                            PROPERTIES.getProperty(USER_NAME_KEY, DEFAULTS.USER_NAME),
+                            PROPERTIES.getProperty(PASSWORD_KEY, DEFAULTS.PASSWORD),
+                            PROPERTIES.getProperty(LAMP_ID_KEY, DEFAULTS.LAMP_ID),
+                            PROPERTIES.getProperty(TOPIC_KEY, DEFAULTS.TOPIC));
+    }
+
+    public Settings withClientId(final String CLIENT_ID) {
+        return new Settings(BROKER_ADDRESS, BROKER_PORT, CLIENT_ID, USER_NAME, PASSWORD, LAMP_ID, TOPIC);
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(BROKER_ADDRESS_KEY, BROKER_ADDRESS);
+        properties.setProperty(BROKER_PORT_KEY, Integer.toString(BROKER_PORT));
+        properties.setProperty(CLIENT_ID_KEY, CLIENT_ID);
+        properties.setProperty(USER_NAME_KEY, USER_NAME);
+        properties.setProperty(PASSWORD_KEY, PASSWORD);
+        properties.setProperty(LAMP_ID_KEY, LAMP_ID);
+        properties.setProperty(TOPIC_KEY, TOPIC);
+        return properties;
+    }
+
+    /**
+     * @param TEXT
+     * @param FALLBACK
+     * @return the port in the given text or the fallback if it is not a valid port
+     */
+    public static int parsePort(final String TEXT, final int FALLBACK) {
+        if (null == TEXT) return FALLBACK;
+        try {
+            final int PORT = Integer.parseInt(TEXT.trim());
+            return PORT > 0 && PORT < 65536 ? PORT : FALLBACK;
+        } catch (NumberFormatException exception) {
+            return FALLBACK;
+        }
+    }
+
+    @Override public boolean equals(final Object OBJECT) {
+        if (this == OBJECT) return true;
+        if (!(OBJECT instanceof Settings)) return false;
+        Settings settings = (Settings) OBJECT;
+        return BROKER_PORT == settings.BROKER_PORT &&
+               BROKER_ADDRESS.equals(settings.BROKER_ADDRESS) &&
+               CLIENT_ID.equals(settings.CLIENT_ID) &&
+               USER_NAME.equals(settings.USER_NAME) &&
+               PASSWORD.equals(settings.PASSWORD) &&
+               LAMP_ID.equals(settings.LAMP_ID) &&
+               TOPIC.equals(settings.TOPIC);
+    }
+
+    @Override public int hashCode() {
+        int result = BROKER_ADDRESS.hashCode();
+        result = 31 * result + BROKER_PORT;
+        result = 31 * result + CLIENT_ID.hashCode();
+        result = 31 * result + USER_NAME.hashCode();
+        result = 31 * result + PASSWORD.hashCode();
+        result = 31 * result + LAMP_ID.hashCode();
+        result = 31 * result + TOPIC.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Keeps the settings in memory and persists them on a background thread.
+ * Loading happens in the background too, until it is done get() returns the
+ * defaults. Saving only replaces the snapshot and (re)starts the write delay,
+ * so a burst of changes (e.g. tabbing through the config fields) results in
+ * one write. The file is written to a temp file first that will be renamed
+ * to the settings file, so a crash never leaves a half written file behind.
+ * Pending changes are written on shutdown.
+ */
+public class SettingsStore {
+    public  static final long                     DEFAULT_WRITE_DELAY = 500; // ms
+    private static final String                   TEMP_SUFFIX         = ".tmp";
+    private final        File                     file;
+    private final        Settings                 defaults;
+    private final        ScheduledExecutorService executor;
+    private final        Object                   writeLock;
+    private final        List<Consumer<Settings>> loadedListeners;
+    private volatile     Settings                 settings;
+    private              Settings                 persistedSettings;
+    private              Future<Settings>         loadTask;
+    private              ScheduledFuture<?>       writeTask;
+    private              boolean                  loaded;
+    private              boolean                  changedBeforeLoad;
+    private volatile     long                     writeDelay;
+
+
+    // ******************** Constructors **************************************
+    public SettingsStore(final File FILE, final Settings DEFAULTS) {
+        file              = FILE;
+        defaults          = DEFAULTS;
+        executor          = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Settings Store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeLock         = new Object();
+        loadedListeners   = new ArrayList<>(2);
+        settings          = DEFAULTS;
+        persistedSettings = null;
+        writeDelay        = DEFAULT_WRITE_DELAY;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "Settings Store Shutdown"));
+    }
+
+
+    // ******************** Methods *******************************************
+    public File getFile() { return file; }
+
+    public Settings getDefaults() { return defaults; }
+
+    /**
+     * @return the current settings, the defaults as long as they are not loaded
+     */
+    public Settings get() { return settings; }
+
+    /**
+     * Starts loading the settings file in the background, calling it again
+     * returns the running or finished load.
+     * @return the loaded settings once the file has been read
+     */
+    public synchronized Future<Settings> load() {
+        if (null == loadTask) { loadTask = executor.submit(this::read); }
+        return loadTask;
+    }
+
+    public synchronized boolean isLoaded() { return loaded; }
+
+    /**
+     * Calls the given consumer with the settings after they have been loaded,
+     * right away if they are loaded already. Otherwise the consumer will be
+     * called on the thread of the store.
+     * @param CONSUMER
+     */
+    public void whenLoaded(final Consumer<Settings> CONSUMER) {
+        synchronized (this) {
+            if (!loaded) {
+                loadedListeners.add(CONSUMER);
+                return;
+            }
+        }
+        CONSUMER.accept(settings);
+    }
+
+    /**
+     * Replaces the current settings and writes them after the write delay,
+     * does no I/O on the calling thread. Changes that are saved before the
+     * file has been loaded win over the content of the file.
+     * @param SETTINGS
+     */
+    public synchronized void save(final Settings SETTINGS) {
+        if (SETTINGS.equals(settings)) return;
+        settings = SETTINGS;
+        if (!loaded) { changedBeforeLoad = true; }
+        if (null != writeTask) { writeTask.cancel(false); }
+        writeTask = executor.schedule(this::writePendingChanges, writeDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes pending changes on the calling thread.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (null != writeTask) {
+                writeTask.cancel(false);
+                writeTask = null;
+            }
+        }
+        writePendingChanges();
+    }
+
+    public long getWriteDelay() { return writeDelay; }
+    /**
+     * @param MILLISECONDS the time without changes before they will be written
+     */
+    public void setWriteDelay(final long MILLISECONDS) { writeDelay = Math.max(0, MILLISECONDS); }
+
+    private Settings read() {
+        Settings fileSettings = defaults;
+        if (file.exists()) {
+            // The stream variants use ISO-8859-1 with unicode escapes, independent of the platform charset
+            try (InputStream input = new FileInputStream(file)) {
+                Properties properties = new Properties();
+                properties.load(input);
+                fileSettings = Settings.fromProperties(properties, defaults);
+            } catch (IOException | IllegalArgumentException exception) {}
+        }
+        final List<Consumer<Settings>> LISTENERS;
+        synchronized (this) {
+            if (!changedBeforeLoad) {
+                settings          = fileSettings;
+                persistedSettings = fileSettings;
+            }
+            loaded = true;
+            LISTENERS = new ArrayList<>(loadedListeners);
+            loadedListeners.clear();
+        }
+        // A listener might save changes, the following ones get the changed settings
+        for (Consumer<Settings> listener : LISTENERS) {
+            try {
+                listener.accept(settings);
+            } catch (RuntimeException exception) {}
+        }
+        return settings;
+    }
+
+    private void writePendingChanges() {
+        synchronized (writeLock) {
+            final Settings SETTINGS;
+            synchronized (this) {
+                writeTask = null;
+                SETTINGS  = settings;
+                if (SETTINGS.equals(persistedSettings) || (!loaded && !changedBeforeLoad)) return;
+            }
+            try {
+                write(SETTINGS);
+                synchronized (this) { persistedSettings = SETTINGS; }
+            } catch (IOException exception) {}
+        }
+    }
+
+    private void write(final Settings SETTINGS) throws IOException {
+        final File TEMP_FILE = new File(file.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream output = new FileOutputStream(TEMP_FILE)) {
+            SETTINGS.toProperties().store(output, file.getName());
+            output.getFD().sync();
+        }
+        // rename() replaces the file atomically on POSIX file systems
+        if (!TEMP_FILE.renameTo(file)) {
+            // Windows can't rename to an existing file
+            if (!file.delete() || !TEMP_FILE.renameTo(file)) { throw new IOException("Can't replace " + file); }
+        }
+    }
+}
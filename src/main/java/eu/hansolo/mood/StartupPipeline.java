@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+
+/**
+ * Runs the startup work that doesn't need the FX application thread in the
+ * background and records how long each phase took, relative to the creation
+ * of the pipeline. Once allPhasesStarted() has been called (e.g. after the
+ * first frame) and every phase has ended, the app is ready for interaction
+ * and the onReady runnable will be called on the thread that ended the last
+ * phase.
+ */
+public class StartupPipeline {
+    private final long               startNanos;
+    private final ExecutorService    executor;
+    private final Map<String, Phase> phases;
+    private       int                runningPhases;
+    private       boolean            allPhasesStarted;
+    private       long               readyNanos;
+    private       Runnable           onReady;
+
+
+    // ******************** Constructors **************************************
+    public StartupPipeline() {
+        startNanos = System.nanoTime();
+        executor   = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        phases     = new LinkedHashMap<>(8);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Runs the given task on a background thread as a phase with the given name.
+     * @param NAME
+     * @param TASK
+     * @return the future of the task
+     */
+    public Future<?> runInBackground(final String NAME, final Runnable TASK) {
+        begin(NAME);
+        return executor.submit(() -> {
+            try {
+                TASK.run();
+            } finally {
+                end(NAME);
+            }
+        });
+    }
+
+    /**
+     * Runs the given supplier on the calling thread as a phase with the given name.
+     * @param NAME
+     * @param SUPPLIER
+     * @return the result of the supplier
+     */
+    public <T> T time(final String NAME, final Supplier<T> SUPPLIER) {
+        begin(NAME);
+        try {
+            return SUPPLIER.get();
+        } finally {
+            end(NAME);
+        }
+    }
+
+    public synchronized void begin(final String NAME) {
+        final Phase PHASE = phases.get(NAME);
+        if (null != PHASE && !PHASE.isEnded()) return;
+        phases.put(NAME, new Phase(NAME, System.nanoTime() - startNanos));
+        runningPhases++;
+    }
+
+    public void end(final String NAME) {
+        final Runnable READY;
+        synchronized (this) {
+            final Phase PHASE = phases.get(NAME);
+            if (null == PHASE || PHASE.isEnded()) return;
+            PHASE.endNanos = System.nanoTime() - startNanos;
+            runningPhases--;
+            READY = checkReady();
+        }
+        if (null != READY) { READY.run(); }
+    }
+
+    /**
+     * Records a phase without duration, e.g. the first frame.
+     * @param NAME
+     */
+    public synchronized void mark(final String NAME) {
+        final Phase PHASE = new Phase(NAME, System.nanoTime() - startNanos);
+        PHASE.endNanos = PHASE.startNanos;
+        phases.put(NAME, PHASE);
+    }
+
+    /**
+     * Tells the pipeline that all phases that have to end before the app is
+     * ready have been started. Phases that start later are still recorded.
+     */
+    public void allPhasesStarted() {
+        final Runnable READY;
+        synchronized (this) {
+            allPhasesStarted = true;
+            READY = checkReady();
+        }
+        if (null != READY) { READY.run(); }
+    }
+
+    public synchronized boolean isReady() { return 0 != readyNanos; }
+
+    /**
+     * @return the time from the creation of the pipeline until the app was ready in ms, 0 if it's not ready yet
+     */
+    public synchronized long getTimeToReady() { return TimeUnit.NANOSECONDS.toMillis(readyNanos); }
+
+    public synchronized void setOnReady(final Runnable ON_READY) { onReady = ON_READY; }
+
+    public synchronized List<Phase> getPhases() { return new ArrayList<>(phases.values()); }
+
+    private Runnable checkReady() {
+        if (!allPhasesStarted || 0 != runningPhases || 0 != readyNanos) return null;
+        readyNanos = Math.max(1, System.nanoTime() - startNanos);
+        return onReady;
+    }
+
+    @Override public synchronized String toString() {
+        StringBuilder report = new StringBuilder("Startup");
+        for (Phase phase : phases.values()) { report.append(", ").append(phase); }
+        if (0 != readyNanos) { report.append(", ready at ").append(TimeUnit.NANOSECONDS.toMillis(readyNanos)).append(" ms"); }
+        return report.toString();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static final class Phase {
+        public  final    String NAME;
+        private final    long   startNanos;
+        private volatile long   endNanos;
+
+
+        Phase(final String NAME, final long START_NANOS) {
+            this.NAME  = NAME;
+            startNanos = START_NANOS;
+            endNanos   = -1;
+        }
+
+        public boolean isEnded() { return endNanos >= 0; }
+
+        /**
+         * @return the start of the phase in ms after the creation of the pipeline
+         */
+        public long getStart() { return TimeUnit.NANOSECONDS.toMillis(startNanos); }
+
+        /**
+         * @return the duration of the phase in ms, -1 if it's still running
+         */
+        public long getDuration() { return isEnded() ? TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos) : -1; }
+
+        @Override public String toString() {
+            if (!isEnded()) return NAME + " running since " + getStart() + " ms";
+            if (endNanos == startNanos) return NAME + " at " + getStart() + " ms";
+            return NAME + " " + getDuration() + " ms (at " + getStart() + " ms)";
+        }
+    }
+}
@@ -16,16 +16,16 @@
 
 package eu.hansolo.mood.controls;
 
-import com.gluonhq.charm.down.common.JavaFXPlatform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.DoublePropertyBase;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ObjectPropertyBase;
+import javafx.event.Event;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
-import javafx.geometry.Point2D;
 import javafx.geometry.VPos;
 import javafx.scene.CacheHint;
+import javafx.scene.Node;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.effect.BlurType;
@@ -38,17 +38,19 @@ import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.paint.Color;
+import javafx.scene.paint.ImagePattern;
 import javafx.scene.paint.Stop;
 import javafx.scene.shape.Arc;
 import javafx.scene.shape.ArcType;
 import javafx.scene.shape.Circle;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.shape.Shape;
 import javafx.scene.shape.StrokeLineCap;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.transform.Rotate;
+import javafx.scene.transform.NonInvertibleTransformException;
 import javafx.scene.transform.Scale;
+import javafx.scene.transform.Transform;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -63,6 +65,14 @@ import java.util.TreeSet;
  * Created by hansolo on 03.03.16.
  */
 public class ColorRegulator extends Region {
+    /**
+     * NODES renders the regulator with a node per part (the default),
+     * CANVAS paints everything into one canvas with pre-rendered sprites
+     * for the parts with effects, which is a lot cheaper on the Raspberry Pi
+     * and on mobile devices.
+     */
+    public enum RenderMode { NODES, CANVAS }
+
     private static final double         PREFERRED_WIDTH  = 250;
     private static final double         PREFERRED_HEIGHT = 250;
     private static final double         MINIMUM_WIDTH    = 50;
@@ -71,21 +81,37 @@ public class ColorRegulator extends Region {
     private static final double         MAXIMUM_HEIGHT   = 1024;
     private static final double         MIN_VALUE        = 0d;
     private static final double         MAX_VALUE        = 1d;
+    private static final int            DIAL_STEPS       = 1024;
+    private static final double         RAD_TO_DEG       = 180.0 / Math.PI;
+    private static final boolean        IS_IOS           = "ios".equals(System.getProperty("javafx.platform")); // set by the JavaFXPorts iOS runtime
     private              double         BAR_START_ANGLE  = -130;
     private              double         ANGLE_RANGE      = 280;
     private final        RegulatorEvent TARGET_SET_EVENT = new RegulatorEvent(RegulatorEvent.TARGET_SET);
     private double                      size;
+    private int                         barPixelSize;
     private Canvas                      barCanvas;
     private GraphicsContext             barCtx;
+    private ImagePattern                barPattern;
+    private Canvas                      canvas;
+    private GraphicsContext             ctx;
+    private Circle                      background;
+    private Background                  paneBackground;
+    private RenderMode                  renderMode;
+    private boolean                     canvasDirty;
+    private Node                        pressedTarget;
+    private Node                        clickTarget;
     private Arc                         buttonOn;
     private Arc                         buttonAuto;
     private Arc                         buttonOff;
     private Shape                       ring;
     private Shape                       innerRing;
+    private Scale                       ringScale;
+    private Scale                       innerRingScale;
     private Circle                      mainCircle;
     private Text                        textOn;
     private Text                        textAuto;
     private Text                        textOff;
+    private Font                        textFont;
     private Circle                      indicator;
     private Circle                      currentColorCircle;
     private Pane                        pane;
@@ -101,6 +127,16 @@ public class ColorRegulator extends Region {
     private ConicalGradient             barGradient;
     private GradientLookup              gradientLookup;
     private boolean                     automatic;
+    private GradientRenderService       barRenderService;
+    private int                         targetArgb;
+    private int                         dialPosition;
+    private boolean                     sceneTransformValid;
+    private double                      sceneToPaneXX;
+    private double                      sceneToPaneXY;
+    private double                      sceneToPaneTX;
+    private double                      sceneToPaneYX;
+    private double                      sceneToPaneYY;
+    private double                      sceneToPaneTY;
 
 
     // ******************** Constructors **************************************
@@ -108,22 +144,29 @@ public class ColorRegulator extends Region {
         scaleFactor   = 1d;
         targetValue   = new DoublePropertyBase(0) {
             @Override public void set(final double VALUE) {
-                super.set(clamp(MIN_VALUE, MAX_VALUE, VALUE));
+                super.set(Helper.clamp(MIN_VALUE, MAX_VALUE, VALUE));
             }
             @Override public Object getBean() { return ColorRegulator.this; }
             @Override public String getName() { return "targetValue"; }
         };
         targetColor   = new ObjectPropertyBase<Color>(Color.YELLOW) {
             @Override public void set(final Color COLOR) {
-                super.set(null == COLOR ? Color.BLACK : COLOR);
-                currentColorCircle.setFill(COLOR);
+                final Color NEW_COLOR = null == COLOR ? Color.BLACK : COLOR;
+                if (NEW_COLOR.equals(get())) return;
+                super.set(NEW_COLOR);
+                targetArgb = Helper.toArgb(NEW_COLOR.getRed(), NEW_COLOR.getGreen(), NEW_COLOR.getBlue(), NEW_COLOR.getOpacity());
+                currentColorCircle.setFill(NEW_COLOR);
+                invalidateCanvas();
             }
             @Override public Object getBean() { return ColorRegulator.this; }
             @Override public String getName() { return "targetColor"; }
         };
         selectedColor = Color.YELLOW;
+        targetArgb    = 0xFFFFFF00; // Color.YELLOW
+        dialPosition  = -1;
         angleStep     = ANGLE_RANGE / (MAX_VALUE - MIN_VALUE);
         automatic     = false;
+        renderMode    = RenderMode.NODES;
         init();
         initGraphics();
         registerListeners();
@@ -144,7 +187,7 @@ public class ColorRegulator extends Region {
             setMinSize(MINIMUM_WIDTH, MINIMUM_HEIGHT);
         }
         if (Double.compare(getMaxWidth(), 0.0) <= 0 || Double.compare(getMaxHeight(), 0.0) <= 0) {
-            if (JavaFXPlatform.isIOS()) {
+            if (IS_IOS) {
                 setMaxSize(350, 350);
             } else {
                 setMaxSize(MAXIMUM_WIDTH, MAXIMUM_HEIGHT);
@@ -176,7 +219,17 @@ public class ColorRegulator extends Region {
         barCanvas   = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
         barCtx      = barCanvas.getGraphicsContext2D();
         barCtx.setLineCap(StrokeLineCap.ROUND);
-        barCtx.setStroke(barGradient.getImagePattern(new Rectangle(0, 0, PREFERRED_WIDTH, PREFERRED_HEIGHT)));
+        barCanvas.setCacheHint(CacheHint.SPEED);
+
+        barRenderService = new GradientRenderService(pattern -> {
+            barPattern = pattern;
+            if (RenderMode.CANVAS == renderMode) {
+                invalidateCanvas();
+            } else {
+                barCtx.setStroke(pattern);
+                drawBar(barCtx, MAX_VALUE);
+            }
+        });
 
         buttonOn = new Arc(PREFERRED_WIDTH * 0.5, PREFERRED_HEIGHT * 0.5, PREFERRED_WIDTH * 0.46, PREFERRED_HEIGHT * 0.46, -125, 22.5);
         buttonOn.setFill(null);
@@ -204,9 +257,13 @@ public class ColorRegulator extends Region {
                               new Circle(center, center, PREFERRED_WIDTH * 0.3));
         ring.setFill(Color.rgb(66,71,79));
         ring.setEffect(highlight);
+        ringScale = new Scale(1, 1, 0, 0);
+        ring.getTransforms().add(ringScale);
+        ring.setCacheHint(CacheHint.SPEED);
 
         mainCircle = new Circle();
         mainCircle.setFill(Color.rgb(14,22,33));
+        mainCircle.setCacheHint(CacheHint.SPEED);
 
         textOn = new Text("ON");
         textOn.setFill(Color.WHITE);
@@ -236,21 +293,32 @@ public class ColorRegulator extends Region {
         innerRing = Shape.subtract(new Circle(center, center, PREFERRED_WIDTH * 0.24),
                                    new Circle(center, center, PREFERRED_WIDTH * 0.2));
         innerRing.setFill(Color.rgb(66,71,79));
+        innerRingScale = new Scale(1, 1, 0, 0);
+        innerRing.getTransforms().add(innerRingScale);
+        innerRing.setCacheHint(CacheHint.SPEED);
 
         currentColorCircle = new Circle();
         currentColorCircle.setFill(targetColor.get());
 
         pane = new Pane(barCanvas, ring, mainCircle, currentColorCircle, innerRing, indicator, buttonOn, textOn, buttonAuto, textAuto, buttonOff, textOff);
         pane.setPrefSize(PREFERRED_HEIGHT, PREFERRED_HEIGHT);
-        pane.setBackground(new Background(new BackgroundFill(Color.rgb(36, 44, 53), new CornerRadii(1024), Insets.EMPTY)));
+        paneBackground = new Background(new BackgroundFill(Color.rgb(36, 44, 53), new CornerRadii(1024), Insets.EMPTY));
+        pane.setBackground(paneBackground);
         pane.setEffect(highlight);
 
+        // Only used in RenderMode.CANVAS
+        background = new Circle(center, center, center);
+        background.setFill(Color.rgb(36, 44, 53));
+        background.setEffect(highlight);
+
+        canvas = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+        ctx    = canvas.getGraphicsContext2D();
+        ctx.setLineCap(StrokeLineCap.ROUND);
+
         getChildren().setAll(pane);
     }
 
     private void registerListeners() {
-        widthProperty().addListener(o -> resize());
-        heightProperty().addListener(o -> resize());
         disabledProperty().addListener(o -> setOpacity(isDisabled() ? 0.4 : 1.0));
         targetValueProperty().addListener(o -> rotate(targetValue.get()));
         ring.addEventHandler(MouseEvent.MOUSE_PRESSED, e -> { if (isDisabled()) return; touchRotate(e.getSceneX(), e.getSceneY()); });
@@ -261,10 +329,48 @@ public class ColorRegulator extends Region {
         buttonAuto.setOnMouseClicked(e -> { if (isDisabled()) return; setAutomatic(!isAutomatic()); });
         buttonOff.setOnMousePressed(e -> { if (isDisabled()) return; buttonOffPressed(true); });
         buttonOff.setOnMouseReleased(e -> { if (isDisabled()) return; buttonOffPressed(false); });
+        pane.localToSceneTransformProperty().addListener(o -> sceneTransformValid = false);
+        canvas.addEventHandler(MouseEvent.ANY, e -> handleCanvasMouseEvent(e));
     }
 
 
     // ******************** Methods *******************************************
+    /**
+     * Size changes only invalidate the layout, so the geometry will be
+     * recomputed at most once per pulse instead of once per width/height change.
+     */
+    @Override protected void layoutChildren() {
+        resize();
+        if (canvasDirty) { drawCanvas(); }
+        super.layoutChildren();
+    }
+
+    public RenderMode getRenderMode() { return renderMode; }
+    /**
+     * Switches between rendering the regulator with nodes or into a single
+     * canvas. The api and the events are the same in both modes.
+     * @param MODE
+     */
+    public void setRenderMode(final RenderMode MODE) {
+        final RenderMode NEW_MODE = null == MODE ? RenderMode.NODES : MODE;
+        if (NEW_MODE == renderMode) return;
+        renderMode = NEW_MODE;
+        if (RenderMode.CANVAS == renderMode) {
+            pane.getChildren().setAll(canvas);
+            pane.setBackground(null);
+            pane.setEffect(null);
+            invalidateCanvas();
+        } else {
+            pane.getChildren().setAll(barCanvas, ring, mainCircle, currentColorCircle, innerRing, indicator, buttonOn, textOn, buttonAuto, textAuto, buttonOff, textOff);
+            pane.setBackground(paneBackground);
+            pane.setEffect(highlight);
+            if (null != barPattern) {
+                barCtx.setStroke(barPattern);
+                drawBar(barCtx, MAX_VALUE);
+            }
+        }
+    }
+
     public double getTargetValue() { return targetValue.get(); }
     public void setTargetValue(final double VALUE) { targetValue.set(VALUE); }
     public DoubleProperty targetValueProperty() { return targetValue; }
@@ -280,7 +386,7 @@ public class ColorRegulator extends Region {
     public void setGradientStops(final List<Stop> STOPS) {
         gradientLookup.setStops(STOPS);
         barGradient = new ConicalGradient(reorderStops(STOPS));
-        barCtx.setStroke(barGradient.getImagePattern(new Rectangle(0, 0, PREFERRED_WIDTH, PREFERRED_HEIGHT)));
+        if (size > 0) { barRenderService.render(barGradient, size); }
     }
 
     public boolean isAutomatic() { return automatic; }
@@ -292,6 +398,7 @@ public class ColorRegulator extends Region {
     public void setOn(final boolean ON) {
         currentColorCircle.setFill(selectedColor);
         currentColorCircle.setVisible(ON);
+        invalidateCanvas();
     }
 
     private static List<Stop> reorderStops(final Stop... STOPS) { return reorderStops(Arrays.asList(STOPS)); }
@@ -325,12 +432,6 @@ public class ColorRegulator extends Region {
         return sortedStops;
     }
 
-    private static <T extends Number> T clamp(final T MIN, final T MAX, final T VALUE) {
-        if (VALUE.doubleValue() < MIN.doubleValue()) return MIN;
-        if (VALUE.doubleValue() > MAX.doubleValue()) return MAX;
-        return VALUE;
-    }
-
     public static double colorDistance(final Color COLOR_1, final Color COLOR_2) {
         final double DELTA_R = (COLOR_2.getRed() - COLOR_1.getRed());
         final double DELTA_G = (COLOR_2.getGreen() - COLOR_1.getGreen());
@@ -339,35 +440,62 @@ public class ColorRegulator extends Region {
         return Math.sqrt(DELTA_R * DELTA_R + DELTA_G * DELTA_G + DELTA_B * DELTA_B);
     }
 
-    private void touchRotate(final double X, final double Y) {
-        Point2D p      = sceneToLocal(X, Y);
-        double  deltaX = p.getX() - (pane.getLayoutX() + size * 0.5);
-        double  deltaY = p.getY() - (pane.getLayoutY() + size * 0.5);
-        double  radius = Math.sqrt((deltaX * deltaX) + (deltaY * deltaY));
-        double  nx     = deltaX / radius;
-        double  ny     = deltaY / radius;
-        double  theta  = Math.atan2(ny, nx);
-        theta         = Double.compare(theta, 0.0) >= 0 ? Math.toDegrees(theta) : Math.toDegrees((theta)) + 360.0;
-        double angle  = (theta + 230) % 360;
-        if (angle > 320 && angle < 360) {
+    /**
+     * Maps the given scene coordinates to a quantized dial position. Runs on
+     * every drag event, so it works on the cached inverse transform of the pane
+     * without allocating and only sets the target value if the position changed.
+     */
+    private void touchRotate(final double SCENE_X, final double SCENE_Y) {
+        if (!sceneTransformValid && !updateSceneTransform()) return;
+        final double CENTER  = size * 0.5;
+        final double DELTA_X = sceneToPaneXX * SCENE_X + sceneToPaneXY * SCENE_Y + sceneToPaneTX - CENTER;
+        final double DELTA_Y = sceneToPaneYX * SCENE_X + sceneToPaneYY * SCENE_Y + sceneToPaneTY - CENTER;
+        double angle = Math.atan2(DELTA_Y, DELTA_X) * RAD_TO_DEG + 230;
+        if (angle >= 360) { angle -= 360; }
+        if (angle > 320) {
             angle = 0;
-        } else if (angle <= 320 && angle > ANGLE_RANGE) {
+        } else if (angle > ANGLE_RANGE) {
             angle = ANGLE_RANGE;
         }
-        setTargetValue(angle / (angleStep + MIN_VALUE));
+        final int POSITION = (int) (angle / ANGLE_RANGE * DIAL_STEPS + 0.5);
+        if (POSITION == dialPosition) return;
+        dialPosition = POSITION;
+        setTargetValue(MIN_VALUE + (MAX_VALUE - MIN_VALUE) * POSITION / DIAL_STEPS);
+    }
+
+    private boolean updateSceneTransform() {
+        try {
+            Transform sceneToPane = pane.getLocalToSceneTransform().createInverse();
+            sceneToPaneXX = sceneToPane.getMxx();
+            sceneToPaneXY = sceneToPane.getMxy();
+            sceneToPaneTX = sceneToPane.getTx();
+            sceneToPaneYX = sceneToPane.getMyx();
+            sceneToPaneYY = sceneToPane.getMyy();
+            sceneToPaneTY = sceneToPane.getTy();
+            sceneTransformValid = true;
+        } catch (NonInvertibleTransformException exception) {
+            sceneTransformValid = false;
+        }
+        return sceneTransformValid;
     }
 
 
     // ******************** Resizing ******************************************
     private void rotate(final double VALUE) {
         indicatorRotate.setAngle((VALUE - MIN_VALUE) * angleStep - ANGLE_RANGE * 0.5);
-        targetColor.set(gradientLookup.getColorAt(VALUE));
+        dialPosition = (int) ((VALUE - MIN_VALUE) / (MAX_VALUE - MIN_VALUE) * DIAL_STEPS + 0.5);
+        invalidateCanvas();
+        // Neighbouring dial positions often map to the same color
+        final int ARGB = gradientLookup.getArgbAt(VALUE);
+        if (ARGB != targetArgb) { targetColor.set(Color.rgb(Helper.red(ARGB), Helper.green(ARGB), Helper.blue(ARGB), Helper.alpha(ARGB) / 255.0)); }
         selectedColor = targetColor.get();
-        if (colorDistance((Color) currentColorCircle.getFill(), selectedColor) > 0.04) currentColorCircle.setFill(selectedColor);
     }
 
     private void drawBar(final GraphicsContext CTX, final double VALUE) {
         CTX.clearRect(0, 0, size, size);
+        strokeBar(CTX, VALUE);
+    }
+    private void strokeBar(final GraphicsContext CTX, final double VALUE) {
         double barXY          = size * 0.04;
         double barWH          = size * 0.92;
         double barAngleExtend = (VALUE - MIN_VALUE) * angleStep;
@@ -381,6 +509,7 @@ public class ColorRegulator extends Region {
         textOn.relocate(buttonOn.getLayoutBounds().getMinX() + (buttonOn.getLayoutBounds().getWidth() - textOn.getLayoutBounds().getWidth()) * 0.5, PRESSED ? size * 0.901 : size * 0.898);
         currentColorCircle.setFill(selectedColor);
         currentColorCircle.setVisible(true);
+        invalidateCanvas();
     }
     private void buttonAutoClicked() {
         if (automatic) {
@@ -395,6 +524,7 @@ public class ColorRegulator extends Region {
             textAuto.relocate(buttonAuto.getLayoutBounds().getMinX() + (buttonAuto.getLayoutBounds().getWidth() - textAuto.getLayoutBounds().getWidth()) * 0.5, size * 0.937);
             textAuto.setFill(Color.rgb(170, 170, 170));
         }
+        invalidateCanvas();
     }
     private void buttonOffPressed(final boolean PRESSED) {
         buttonOff.setEffect(PRESSED ? innerShadow : dropShadow);
@@ -403,97 +533,220 @@ public class ColorRegulator extends Region {
         setAutomatic(false);
     }
 
+
+    // ******************** Canvas rendering **********************************
+    private void invalidateCanvas() {
+        if (RenderMode.CANVAS != renderMode || canvasDirty) return;
+        canvasDirty = true;
+        requestLayout();
+    }
+
+    /**
+     * Paints the regulator in the same order as the nodes are stacked in the pane.
+     * Everything that carries an effect is drawn from the shared EffectSpriteCache,
+     * the rest is drawn directly.
+     */
+    private void drawCanvas() {
+        canvasDirty = false;
+        if (size <= 0) return;
+        double center = size * 0.5;
+
+        ctx.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawSprite("regulator.background", background);
+
+        if (null != barPattern) {
+            ctx.setStroke(barPattern);
+            ctx.setLineWidth(size * 0.04);
+            strokeBar(ctx, MAX_VALUE);
+        }
+
+        drawSprite("regulator.ring", ring);
+
+        ctx.setFill(mainCircle.getFill());
+        ctx.fillOval(center - mainCircle.getRadius(), center - mainCircle.getRadius(), mainCircle.getRadius() * 2, mainCircle.getRadius() * 2);
+
+        if (currentColorCircle.isVisible()) {
+            double radius = currentColorCircle.getRadius();
+            ctx.setFill(currentColorCircle.getFill());
+            ctx.fillOval(center - radius, center - radius, radius * 2, radius * 2);
+        }
+
+        drawSprite("regulator.innerRing", innerRing);
+
+        double indicatorRadius = indicator.getRadius();
+        ctx.save();
+        ctx.translate(center, center);
+        ctx.rotate(indicatorRotate.getAngle());
+        ctx.setFill(indicator.getFill());
+        ctx.setStroke(indicator.getStroke());
+        ctx.setLineWidth(indicator.getStrokeWidth());
+        ctx.fillOval(-indicatorRadius, indicator.getCenterY() - center - indicatorRadius, indicatorRadius * 2, indicatorRadius * 2);
+        ctx.strokeOval(-indicatorRadius, indicator.getCenterY() - center - indicatorRadius, indicatorRadius * 2, indicatorRadius * 2);
+        ctx.restore();
+
+        drawSprite("regulator.buttonOn", buttonOn);
+        drawSprite("regulator.textOn", textOn);
+        drawSprite("regulator.buttonAuto", buttonAuto);
+        drawSprite("regulator.textAuto", textAuto);
+        drawSprite("regulator.buttonOff", buttonOff);
+        drawSprite("regulator.textOff", textOff);
+    }
+
+    private void drawSprite(final String SHAPE, final Node NODE) { EffectSpriteCache.INSTANCE.draw(ctx, SHAPE, NODE); }
+
+    /**
+     * Returns the node that would have been picked in RenderMode.NODES at the
+     * given position in pane coordinates, or null.
+     */
+    private Node pick(final double X, final double Y) {
+        double deltaX = X - size * 0.5;
+        double deltaY = Y - size * 0.5;
+        double radius = Math.sqrt(deltaX * deltaX + deltaY * deltaY) / size;
+        if (radius >= 0.3 && radius <= 0.42) return ring;
+        if (radius < 0.424 || radius > 0.496) return null;
+        double angle = Math.toDegrees(Math.atan2(-deltaY, deltaX)); // same orientation as Arc.startAngle
+        if (angle >= -125 && angle <= -102.5)   return buttonOn;
+        if (angle >= -101.25 && angle <= -78.75) return buttonAuto;
+        if (angle >= -77.5 && angle <= -55)     return buttonOff;
+        return null;
+    }
+
+    /**
+     * Forwards the mouse events of the canvas to the node that has been hit,
+     * so the handlers of the nodes work the same in both render modes.
+     * Like in the scene graph, the pressed node gets all events until the
+     * button is released.
+     */
+    private void handleCanvasMouseEvent(final MouseEvent EVENT) {
+        Node target;
+        if (MouseEvent.MOUSE_PRESSED == EVENT.getEventType()) {
+            pressedTarget = pick(EVENT.getX(), EVENT.getY());
+            target        = pressedTarget;
+        } else if (MouseEvent.MOUSE_DRAGGED == EVENT.getEventType()) {
+            target = pressedTarget;
+        } else if (MouseEvent.MOUSE_RELEASED == EVENT.getEventType()) {
+            target        = pressedTarget;
+            clickTarget   = pick(EVENT.getX(), EVENT.getY()) == pressedTarget ? pressedTarget : null;
+            pressedTarget = null;
+        } else if (MouseEvent.MOUSE_CLICKED == EVENT.getEventType()) {
+            target      = clickTarget;
+            clickTarget = null;
+        } else {
+            return;
+        }
+        if (null == target) return;
+        EVENT.consume();
+        Event.fireEvent(target, EVENT.copyFor(target, target));
+    }
+
     private void resize() {
         double width  = getWidth() - getInsets().getLeft() - getInsets().getRight();
         double height = getHeight() - getInsets().getTop() - getInsets().getBottom();
-        size   = width < height ? width : height;
+        if (width <= 0 || height <= 0) return;
+
+        double newSize = width < height ? width : height;
+        if (Double.compare(newSize, size) != 0) {
+            size = newSize;
+            resizeGeometry();
+        }
+        pane.relocate((getWidth() - size) * 0.5, (getHeight() - size) * 0.5);
+    }
 
-        if (width > 0 && height > 0) {
-            double center = size * 0.5;
+    private void resizeGeometry() {
+        double center = size * 0.5;
 
-            pane.setMaxSize(size, size);
-            pane.setPrefSize(size, size);
-            pane.relocate((getWidth() - size) * 0.5, (getHeight() - size) * 0.5);
+        pane.setMaxSize(size, size);
+        pane.setPrefSize(size, size);
 
+        canvas.setWidth(size);
+        canvas.setHeight(size);
+
+        // The canvas only needs to be redrawn if it covers a different number of pixels
+        int pixelSize = (int) Math.round(size);
+        if (pixelSize != barPixelSize) {
+            barPixelSize = pixelSize;
             barCanvas.setCache(false);
             barCanvas.setWidth(size);
             barCanvas.setHeight(size);
             barCtx.setLineWidth(size * 0.04);
-            barCtx.setStroke(barGradient.getImagePattern(new Rectangle(0, 0, size, size)));
             drawBar(barCtx, MAX_VALUE);
+            barRenderService.render(barGradient, size);
             barCanvas.setCache(true);
-            barCanvas.setCacheHint(CacheHint.SPEED);
-
-            double buttonRadius = size * 0.46;
-            double buttonWidth  = size * 0.072;
-            buttonOn.setCenterX(center);
-            buttonOn.setCenterY(center);
-            buttonOn.setRadiusX(buttonRadius);
-            buttonOn.setRadiusY(buttonRadius);
-            buttonOn.setStrokeWidth(buttonWidth);
-
-            buttonAuto.setCenterX(center);
-            buttonAuto.setCenterY(center);
-            buttonAuto.setRadiusX(buttonRadius);
-            buttonAuto.setRadiusY(buttonRadius);
-            buttonAuto.setStrokeWidth(buttonWidth);
-
-            buttonOff.setCenterX(center);
-            buttonOff.setCenterY(center);
-            buttonOff.setRadiusX(buttonRadius);
-            buttonOff.setRadiusY(buttonRadius);
-            buttonOff.setStrokeWidth(buttonWidth);
-
-            double shadowSize = clamp(1d, 2d, size * 0.004);
-            dropShadow.setRadius(shadowSize);
-            dropShadow.setOffsetY(shadowSize);
-            highlight.setRadius(shadowSize);
-            highlight.setOffsetY(shadowSize);
-            innerShadow.setRadius(shadowSize);
-            innerShadow.setOffsetY(-shadowSize);
-
-            scaleFactor = size / PREFERRED_WIDTH;
-            ring.setCache(false);
-            ring.getTransforms().setAll(new Scale(scaleFactor, scaleFactor, 0, 0));
-            ring.setCache(true);
-            ring.setCacheHint(CacheHint.SPEED);
-
-            mainCircle.setCache(false);
-            mainCircle.setRadius(size * 0.3);
-            mainCircle.setCenterX(center); mainCircle.setCenterY(center);
-            mainCircle.setCache(true);
-            mainCircle.setCacheHint(CacheHint.SPEED);
-
-            //textOn.setFont(Fonts.robotoLight(size * 0.035));
-            textOn.setFont(Font.font(size * 0.035));
-            textOn.relocate(buttonOn.getLayoutBounds().getMinX() + (buttonOn.getLayoutBounds().getWidth() - textOn.getLayoutBounds().getWidth()) * 0.5, size * 0.898);
-
-            //textAuto.setFont(Fonts.robotoLight(size * 0.035));
-            textAuto.setFont(Font.font(size * 0.035));
-            textAuto.relocate(buttonAuto.getLayoutBounds().getMinX() + (buttonAuto.getLayoutBounds().getWidth() - textAuto.getLayoutBounds().getWidth()) * 0.5, size * 0.937);
+        }
 
-            //textOff.setFont(Fonts.robotoLight(size * 0.035));
-            textOff.setFont(Font.font(size * 0.035));
-            textOff.relocate(buttonOff.getLayoutBounds().getMinX() + (buttonOff.getLayoutBounds().getWidth() - textOff.getLayoutBounds().getWidth()) * 0.5, size * 0.898);
+        double buttonRadius = size * 0.46;
+        double buttonWidth  = size * 0.072;
+        buttonOn.setCenterX(center);
+        buttonOn.setCenterY(center);
+        buttonOn.setRadiusX(buttonRadius);
+        buttonOn.setRadiusY(buttonRadius);
+        buttonOn.setStrokeWidth(buttonWidth);
+
+        buttonAuto.setCenterX(center);
+        buttonAuto.setCenterY(center);
+        buttonAuto.setRadiusX(buttonRadius);
+        buttonAuto.setRadiusY(buttonRadius);
+        buttonAuto.setStrokeWidth(buttonWidth);
+
+        buttonOff.setCenterX(center);
+        buttonOff.setCenterY(center);
+        buttonOff.setRadiusX(buttonRadius);
+        buttonOff.setRadiusY(buttonRadius);
+        buttonOff.setStrokeWidth(buttonWidth);
+
+        double shadowSize = Helper.clamp(1d, 2d, size * 0.004);
+        dropShadow.setRadius(shadowSize);
+        dropShadow.setOffsetY(shadowSize);
+        highlight.setRadius(shadowSize);
+        highlight.setOffsetY(shadowSize);
+        innerShadow.setRadius(shadowSize);
+        innerShadow.setOffsetY(-shadowSize);
+
+        background.setCenterX(center);
+        background.setCenterY(center);
+        background.setRadius(center);
+
+        // Toggling the cache makes the cached bitmaps being rendered again at the new scale
+        scaleFactor = size / PREFERRED_WIDTH;
+        ring.setCache(false);
+        ringScale.setX(scaleFactor);
+        ringScale.setY(scaleFactor);
+        ring.setCache(true);
+
+        mainCircle.setCache(false);
+        mainCircle.setRadius(size * 0.3);
+        mainCircle.setCenterX(center); mainCircle.setCenterY(center);
+        mainCircle.setCache(true);
+
+        double fontSize = size * 0.035;
+        if (null == textFont || Double.compare(fontSize, textFont.getSize()) != 0) {
+            //textFont = Fonts.robotoLight(fontSize);
+            textFont = Font.font(fontSize);
+            textOn.setFont(textFont);
+            textAuto.setFont(textFont);
+            textOff.setFont(textFont);
+        }
+        textOn.relocate(buttonOn.getLayoutBounds().getMinX() + (buttonOn.getLayoutBounds().getWidth() - textOn.getLayoutBounds().getWidth()) * 0.5, size * 0.898);
+        textAuto.relocate(buttonAuto.getLayoutBounds().getMinX() + (buttonAuto.getLayoutBounds().getWidth() - textAuto.getLayoutBounds().getWidth()) * 0.5, size * 0.937);
+        textOff.relocate(buttonOff.getLayoutBounds().getMinX() + (buttonOff.getLayoutBounds().getWidth() - textOff.getLayoutBounds().getWidth()) * 0.5, size * 0.898);
 
-            indicator.setRadius(size * 0.032);
-            indicator.setCenterX(center);
-            indicator.setCenterY(size * 0.148);
+        indicator.setRadius(size * 0.032);
+        indicator.setCenterX(center);
+        indicator.setCenterY(size * 0.148);
 
-            indicatorRotate.setPivotX(center);
-            indicatorRotate.setPivotY(center);
+        indicatorRotate.setPivotX(center);
+        indicatorRotate.setPivotY(center);
 
-            currentColorCircle.setCenterX(center);
-            currentColorCircle.setCenterY(center);
-            currentColorCircle.setRadius(size * 0.2);
+        currentColorCircle.setCenterX(center);
+        currentColorCircle.setCenterY(center);
+        currentColorCircle.setRadius(size * 0.2);
 
-            innerRing.setCache(false);
-            innerRing.getTransforms().setAll(new Scale(scaleFactor, scaleFactor, 0, 0));
-            innerRing.setCache(true);
-            innerRing.setCacheHint(CacheHint.SPEED);
+        innerRing.setCache(false);
+        innerRingScale.setX(scaleFactor);
+        innerRingScale.setY(scaleFactor);
+        innerRing.setCache(true);
 
-            rotate(targetValue.get());
-        }
+        rotate(targetValue.get());
     }
 
 
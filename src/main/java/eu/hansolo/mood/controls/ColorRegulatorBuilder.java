@@ -68,6 +68,11 @@ public class ColorRegulatorBuilder<B extends ColorRegulatorBuilder<B>> {
         return (B)this;
     }
 
+    public final B renderMode(final ColorRegulator.RenderMode MODE) {
+        properties.put("renderMode", new SimpleObjectProperty<>(MODE));
+        return (B)this;
+    }
+
     public final B onButtonOnPressed(final EventHandler<MouseEvent> HANDLER) {
         properties.put("onButtonOnPressed", new SimpleObjectProperty<>(HANDLER));
         return (B)this;
@@ -220,6 +225,8 @@ public class ColorRegulatorBuilder<B extends ColorRegulatorBuilder<B>> {
                 CONTROL.setTargetValue(((DoubleProperty) properties.get(key)).get());
             } else if ("targetColor".equals(key)) {
                 CONTROL.setTargetColor(((ObjectProperty<Color>) properties.get(key)).get());
+            } else if ("renderMode".equals(key)) {
+                CONTROL.setRenderMode(((ObjectProperty<ColorRegulator.RenderMode>) properties.get(key)).get());
             } else if ("onTargetSet".equals(key)) {
                 CONTROL.setOnTargetSet(((ObjectProperty<EventHandler>) properties.get(key)).get());
             } else if ("onButtonOnPressed".equals(key)) {
@@ -16,11 +16,10 @@
 
 package eu.hansolo.mood.controls;
 
-import javafx.animation.Interpolator;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.ImagePattern;
@@ -36,16 +35,25 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * Created by hansolo on 21.12.15.
  */
 public class ConicalGradient {
-    private static final double ANGLE_FACTOR = 1d / 360d;
+    private static final double ANGLE_FACTOR   = 1d / 360d;
+    private static final int    LUT_SIZE       = 4096;
+    private static final int    LUT_MASK       = LUT_SIZE - 1;
+    private static final double TWO_PI         = 2 * Math.PI;
+    private static final double ANGLE_TO_INDEX = LUT_SIZE / TWO_PI;
+    private static final int    ROWS_PER_TASK  = 16;
     private double              centerX;
     private double              centerY;
     private List<Stop>          sortedStops;
+    private volatile int[]      colorLut;
 
 
     // ******************** Constructors **************************************
@@ -65,7 +73,7 @@ public class ConicalGradient {
         this(CENTER_X, CENTER_Y, OFFSET, Arrays.asList(STOPS));
     }
     public ConicalGradient(final double CENTER_X, final double CENTER_Y, final double OFFSET, final List<Stop> STOPS) {
-        double offset  = clamp(0d, 1d, OFFSET);
+        double offset  = Helper.clamp(0d, 1d, OFFSET);
         centerX        = CENTER_X;
         centerY        = CENTER_Y;
         List<Stop> stops;
@@ -116,6 +124,7 @@ public class ConicalGradient {
     public void recalculateWithAngle(final double ANGLE) {
         double angle = ANGLE % 360d;
         sortedStops = calculate(sortedStops, ANGLE_FACTOR * angle);
+        colorLut    = null;
     }
 
     public List<Stop> getStops() { return sortedStops; }
@@ -123,108 +132,80 @@ public class ConicalGradient {
     public double[] getCenter() { return new double[]{ centerX, centerY }; }
     public Point2D getCenterPoint() { return new Point2D(centerX, centerY); }
 
-    private static final <T extends Number> T clamp(final T MIN, final T MAX, final T VALUE) {
-        if (VALUE.doubleValue() < MIN.doubleValue()) return MIN;
-        if (VALUE.doubleValue() > MAX.doubleValue()) return MAX;
-        return VALUE;
-    }
-
     public Image getImage(final double WIDTH, final double HEIGHT) {
-        int   width  = (int) WIDTH  <= 0 ? 100 : (int) WIDTH;
-        int   height = (int) HEIGHT <= 0 ? 100 : (int) HEIGHT;
-        Color color  = Color.TRANSPARENT;
-        final WritableImage RASTER       = new WritableImage(width, height);
-        final PixelWriter   PIXEL_WRITER = RASTER.getPixelWriter();
+        int width  = (int) WIDTH  <= 0 ? 100 : (int) WIDTH;
+        int height = (int) HEIGHT <= 0 ? 100 : (int) HEIGHT;
         if (Double.compare(0d, centerX) == 0) centerX = width * 0.5;
         if (Double.compare(0d, centerY) == 0) centerY = height * 0.5;
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double dx = x - centerX;
-                double dy = y - centerY;
-                double distance = Math.sqrt((dx * dx) + (dy * dy));
-                distance = Double.compare(distance, 0) == 0 ? 1 : distance;
-
-                double angle = Math.abs(Math.toDegrees(Math.acos(dx / distance)));
-                if (dx >= 0 && dy <= 0) {
-                    angle = 90.0 - angle;   // Upper Right Quadrant
-                } else if (dx >= 0 && dy >= 0) {
-                    angle += 90.0;          // Lower Right Quadrant
-                } else if (dx <= 0 && dy >= 0) {
-                    angle += 90.0;          // Lower Left Quadrant
-                } else if (dx <= 0 && dy <= 0) {
-                    angle = 450.0 - angle;  // Upper Left Qudrant
-                }
-
-                for (int i = 0; i < (sortedStops.size() - 1); i++) {
-                    if (angle >= (sortedStops.get(i).getOffset() * 360d) && angle < (sortedStops.get(i + 1).getOffset() * 360d)) {
-                        double fraction = (angle - sortedStops.get(i).getOffset() * 360d) / ((sortedStops.get(i + 1).getOffset() - sortedStops.get(i).getOffset()) * 360d);
-                        color = (Color) Interpolator.LINEAR.interpolate(sortedStops.get(i).getColor(), sortedStops.get(i + 1).getColor(), fraction);
-                    }
-                }
-                PIXEL_WRITER.setColor(x, y, color);
-            }
-        }
-        return RASTER;
+        return createImage(width, height, centerX, centerY, false);
     }
 
     public Image getRoundImage(final double SIZE) {
-        int   size  = (int) SIZE  <= 0 ? 100 : (int) SIZE;
-        Color color = Color.TRANSPARENT;
-        final WritableImage RASTER       = new WritableImage(size, size);
-        final PixelWriter   PIXEL_WRITER = RASTER.getPixelWriter();
+        int size = (int) SIZE <= 0 ? 100 : (int) SIZE;
         if (Double.compare(0d, centerX) == 0) centerX = size * 0.5;
         if (Double.compare(0d, centerY) == 0) centerY = size * 0.5;
-        double radius = size * 0.5;
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                double dx       = x - centerX;
-                double dy       = y - centerY;
-                double distance = Math.sqrt((dx * dx) + (dy * dy));
-                distance = Double.compare(distance, 0) == 0 ? 1 : distance;
-
-                double angle = Math.abs(Math.toDegrees(Math.acos(dx / distance)));
-
-                if (dx >= 0 && dy <= 0) {
-                    angle = 90.0 - angle;
-                } else if (dx >= 0 && dy >= 0) {
-                    angle += 90.0;
-                } else if (dx <= 0 && dy >= 0) {
-                    angle += 90.0;
-                } else if (dx <= 0 && dy <= 0) {
-                    angle = 450.0 - angle;
-                }
-                double radiusMinus05 = radius - 0.25;
-                double radiusMinus10 = radius - 0.5;
-                double radiusMinus15 = radius - 1.0;
-                double radiusMinus20 = radius - 1.5;
-
-                if (distance > radius) {
-                    color = Color.TRANSPARENT;
-                } else {
-                    for (int i = 0; i < (sortedStops.size() - 1); i++) {
-                        if (angle >= (sortedStops.get(i).getOffset() * 360) && angle < (sortedStops.get(i + 1).getOffset() * 360)) {
-                            double fraction = (angle - sortedStops.get(i).getOffset() * 360) / ((sortedStops.get(i + 1).getOffset() - sortedStops.get(i).getOffset()) * 360);
-                            color = (Color) Interpolator.LINEAR.interpolate(sortedStops.get(i).getColor(), sortedStops.get(i + 1).getColor(), fraction);
-
-                            if (distance > radiusMinus05) {
-                                color = color.deriveColor(0.0, 1.0, 1.0, 0.25);
-                            } else if (distance > radiusMinus10) {
-                                color = color.deriveColor(0.0, 1.0, 1.0, 0.45);
-                            } else if (distance > radiusMinus15) {
-                                color = color.deriveColor(0.0, 1.0, 1.0, 0.65);
-                            } else if (distance > radiusMinus20) {
-                                color = color.deriveColor(0.0, 1.0, 1.0, 0.85);
-                            }
-                        }
+        return createImage(size, size, centerX, centerY, true);
+    }
+
+    /**
+     * Renders the gradient centered in an image of the given size without
+     * touching the center of this gradient, so it can be called from any thread.
+     * @param WIDTH
+     * @param HEIGHT
+     * @param CANCELLED rendering stops as soon as this flag is set
+     * @return the rendered image or null if rendering was cancelled
+     */
+    Image createCenteredImage(final int WIDTH, final int HEIGHT, final AtomicBoolean CANCELLED) { return createImage(WIDTH, HEIGHT, WIDTH * 0.5, HEIGHT * 0.5, false, CANCELLED); }
+
+    private Image createImage(final int WIDTH, final int HEIGHT, final double CENTER_X, final double CENTER_Y, final boolean ROUND) {
+        return createImage(WIDTH, HEIGHT, CENTER_X, CENTER_Y, ROUND, new AtomicBoolean(false));
+    }
+    private Image createImage(final int WIDTH, final int HEIGHT, final double CENTER_X, final double CENTER_Y, final boolean ROUND, final AtomicBoolean CANCELLED) {
+        final int[] PIXELS = new int[WIDTH * HEIGHT];
+        ForkJoinPool.commonPool().invoke(new RasterTask(PIXELS, WIDTH, CENTER_X, CENTER_Y, ROUND ? WIDTH * 0.5 : 0, getColorLut(), CANCELLED, 0, HEIGHT));
+        if (CANCELLED.get()) return null;
+
+        final WritableImage RASTER = new WritableImage(WIDTH, HEIGHT);
+        RASTER.getPixelWriter().setPixels(0, 0, WIDTH, HEIGHT, PixelFormat.getIntArgbInstance(), PIXELS, 0, WIDTH);
+        return RASTER;
+    }
+
+    /**
+     * Returns a table with LUT_SIZE packed argb colors where entry i contains
+     * the color at the angle i * 360 / LUT_SIZE (measured clockwise from 12 o'clock).
+     * @return table of packed argb colors
+     */
+    private int[] getColorLut() {
+        int[] lut = colorLut;
+        if (null == lut) {
+            lut = new int[LUT_SIZE];
+            final int NO_OF_STOPS = sortedStops.size();
+            int argb = 0x00000000;
+            for (int i = 0 ; i < LUT_SIZE ; i++) {
+                final double ANGLE = i * 360d / LUT_SIZE;
+                for (int s = 0 ; s < NO_OF_STOPS - 1 ; s++) {
+                    final Stop LOWER = sortedStops.get(s);
+                    final Stop UPPER = sortedStops.get(s + 1);
+                    if (ANGLE >= LOWER.getOffset() * 360d && ANGLE < UPPER.getOffset() * 360d) {
+                        final double FRACTION = (ANGLE - LOWER.getOffset() * 360d) / ((UPPER.getOffset() - LOWER.getOffset()) * 360d);
+                        argb = interpolate(LOWER.getColor(), UPPER.getColor(), FRACTION);
                     }
                 }
-                PIXEL_WRITER.setColor(x, y, color);
+                lut[i] = argb;
             }
+            colorLut = lut;
         }
-        return RASTER;
+        return lut;
     }
 
+    private static int interpolate(final Color LOWER, final Color UPPER, final double FRACTION) {
+        return Helper.toArgb(LOWER.getRed()     + (UPPER.getRed()     - LOWER.getRed())     * FRACTION,
+                             LOWER.getGreen()   + (UPPER.getGreen()   - LOWER.getGreen())   * FRACTION,
+                             LOWER.getBlue()    + (UPPER.getBlue()    - LOWER.getBlue())    * FRACTION,
+                             LOWER.getOpacity() + (UPPER.getOpacity() - LOWER.getOpacity()) * FRACTION);
+    }
+
+
     public ImagePattern apply(final Shape SHAPE) {
         double x      = SHAPE.getLayoutBounds().getMinX();
         double y      = SHAPE.getLayoutBounds().getMinY();
@@ -247,4 +228,90 @@ public class ConicalGradient {
         centerY       = height * 0.5;
         return new ImagePattern(getImage(width, height), x, y, width, height, false);
     }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Fills a range of rows of the given argb buffer. Splits itself until
+     * the number of rows drops below ROWS_PER_TASK, so rows are rendered
+     * in parallel on the common fork join pool.
+     */
+    private static class RasterTask extends RecursiveAction {
+        private static final long   serialVersionUID = 1L;
+        private final int[]         pixels;
+        private final int           width;
+        private final double        centerX;
+        private final double        centerY;
+        private final double        radius;
+        private final int[]         lut;
+        private final AtomicBoolean cancelled;
+        private final int           fromRow;
+        private final int           toRow;
+
+
+        RasterTask(final int[] PIXELS, final int WIDTH, final double CENTER_X, final double CENTER_Y, final double RADIUS, final int[] LUT, final AtomicBoolean CANCELLED, final int FROM_ROW, final int TO_ROW) {
+            pixels    = PIXELS;
+            width     = WIDTH;
+            centerX   = CENTER_X;
+            centerY   = CENTER_Y;
+            radius    = RADIUS;
+            lut       = LUT;
+            cancelled = CANCELLED;
+            fromRow   = FROM_ROW;
+            toRow     = TO_ROW;
+        }
+
+        @Override protected void compute() {
+            if (toRow - fromRow > ROWS_PER_TASK) {
+                final int MIDDLE = (fromRow + toRow) >>> 1;
+                invokeAll(new RasterTask(pixels, width, centerX, centerY, radius, lut, cancelled, fromRow, MIDDLE),
+                          new RasterTask(pixels, width, centerX, centerY, radius, lut, cancelled, MIDDLE, toRow));
+            } else {
+                fillRows();
+            }
+        }
+
+        private void fillRows() {
+            final boolean ROUND      = radius > 0;
+            // Squared distances of the anti aliasing rings at the border of the round image
+            final double  RADIUS_0   = radius * radius;
+            final double  RADIUS_05  = (radius - 0.25) * (radius - 0.25);
+            final double  RADIUS_10  = (radius - 0.5) * (radius - 0.5);
+            final double  RADIUS_15  = (radius - 1.0) * (radius - 1.0);
+            final double  RADIUS_20  = (radius - 1.5) * (radius - 1.5);
+            for (int y = fromRow ; y < toRow ; y++) {
+                if (cancelled.get()) return;
+                final double DY     = y - centerY;
+                final int    OFFSET = y * width;
+                for (int x = 0 ; x < width ; x++) {
+                    final double DX = x - centerX;
+
+                    // Angle measured clockwise from 12 o'clock
+                    double angle = Math.atan2(DX, 0d - DY);
+                    if (angle < 0) { angle += TWO_PI; }
+                    int argb = lut[(int) (angle * ANGLE_TO_INDEX) & LUT_MASK];
+
+                    if (ROUND) {
+                        final double DISTANCE_SQUARED = DX * DX + DY * DY;
+                        if (DISTANCE_SQUARED > RADIUS_0) {
+                            argb = 0x00000000;
+                        } else if (DISTANCE_SQUARED > RADIUS_05) {
+                            argb = scaleAlpha(argb, 0.25);
+                        } else if (DISTANCE_SQUARED > RADIUS_10) {
+                            argb = scaleAlpha(argb, 0.45);
+                        } else if (DISTANCE_SQUARED > RADIUS_15) {
+                            argb = scaleAlpha(argb, 0.65);
+                        } else if (DISTANCE_SQUARED > RADIUS_20) {
+                            argb = scaleAlpha(argb, 0.85);
+                        }
+                    }
+                    pixels[OFFSET + x] = argb;
+                }
+            }
+        }
+
+        private static int scaleAlpha(final int ARGB, final double FACTOR) {
+            return ((int) ((ARGB >>> 24) * FACTOR + 0.5) << 24) | (ARGB & 0x00FFFFFF);
+        }
+    }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.controls;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.WeakInvalidationListener;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.effect.Effect;
+import javafx.scene.effect.InnerShadow;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Shape;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+
+/**
+ * Cache for nodes with effects that have been rendered into images, keyed by
+ * the shape, its size in pixels, its paints and the parameters of its effect
+ * chain. Each combination will be rasterized only once and all controls share
+ * the images, e.g. a pressed button just swaps the sprite instead of running
+ * the blurs again. The least recently used sprites will be evicted as soon as
+ * the images take more than the given number of bytes.
+ * The key of a node is kept in the properties of the node and only computed
+ * again after one of the properties it depends on changed, so drawing a cached
+ * sprite does not allocate.
+ * Has to be used on the FX application thread.
+ */
+public enum EffectSpriteCache {
+    INSTANCE;
+
+    public static final long                      DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    private static final Object                    NODE_KEY          = new Object(); // key in Node.getProperties()
+    private final       LinkedHashMap<Key, Sprite> sprites;
+    private             long                       usedBytes;
+    private             long                       maxBytes;
+    private             long                       hits;
+    private             long                       misses;
+
+
+    // ******************** Constructors **************************************
+    EffectSpriteCache() {
+        sprites   = new LinkedHashMap<>(16, 0.75f, true);
+        usedBytes = 0;
+        maxBytes  = DEFAULT_MAX_BYTES;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the sprite of the given node, renders it if it is not cached yet.
+     * The node must not be part of a showing scene graph.
+     * @param SHAPE identifies the geometry of the node, e.g. "regulator.buttonOn"
+     * @param NODE
+     * @return the sprite of the given node in its current state
+     */
+    public Sprite get(final String SHAPE, final Node NODE) {
+        NodeKey nodeKey = (NodeKey) NODE.getProperties().get(NODE_KEY);
+        if (null == nodeKey || !nodeKey.shape.equals(SHAPE)) {
+            if (null != nodeKey) { nodeKey.dispose(); }
+            nodeKey = new NodeKey(SHAPE, NODE);
+            NODE.getProperties().put(NODE_KEY, nodeKey);
+        }
+        final Key KEY = nodeKey.getKey();
+        Sprite sprite = sprites.get(KEY);
+        if (null != sprite) {
+            hits++;
+            return sprite;
+        }
+        misses++;
+        sprite = new Sprite(NODE, NODE.getBoundsInParent());
+        sprites.put(KEY, sprite);
+        usedBytes += sprite.getBytes();
+        evict();
+        return sprite;
+    }
+
+    /**
+     * Draws the sprite of the given node at the position of the node.
+     * @param CTX
+     * @param SHAPE
+     * @param NODE
+     */
+    public void draw(final GraphicsContext CTX, final String SHAPE, final Node NODE) {
+        final Sprite SPRITE = get(SHAPE, NODE);
+        CTX.drawImage(SPRITE.getImage(), NODE.getLayoutX() + SPRITE.getOffsetX(), NODE.getLayoutY() + SPRITE.getOffsetY());
+    }
+
+    public long getMaxBytes() { return maxBytes; }
+    public void setMaxBytes(final long MAX_BYTES) {
+        maxBytes = Math.max(0, MAX_BYTES);
+        evict();
+    }
+
+    public long getUsedBytes() { return usedBytes; }
+
+    public long getHits() { return hits; }
+
+    public long getMisses() { return misses; }
+
+    public int getSize() { return sprites.size(); }
+
+    public void clear() {
+        sprites.clear();
+        usedBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Entry<Key, Sprite>> iterator = sprites.entrySet().iterator();
+        // Always keep the most recently used sprite
+        while (usedBytes > maxBytes && sprites.size() > 1 && iterator.hasNext()) {
+            Entry<Key, Sprite> eldest = iterator.next();
+            iterator.remove();
+            usedBytes -= eldest.getValue().getBytes();
+        }
+    }
+
+    private static String signatureOf(final Node NODE) {
+        StringBuilder signature = new StringBuilder(128);
+        signature.append(NODE.getRotate()).append('|');
+        if (NODE instanceof Shape) {
+            Shape shape = (Shape) NODE;
+            signature.append(shape.getFill()).append('|')
+                     .append(shape.getStroke()).append('|')
+                     .append(shape.getStrokeWidth()).append('|');
+        }
+        if (NODE instanceof Text) {
+            Text text = (Text) NODE;
+            signature.append(text.getText()).append('|').append(text.getFont()).append('|');
+        }
+        appendEffect(signature, NODE.getEffect());
+        return signature.toString();
+    }
+
+    private static void appendEffect(final StringBuilder SIGNATURE, final Effect EFFECT) {
+        if (null == EFFECT) return;
+        if (EFFECT instanceof DropShadow) {
+            DropShadow shadow = (DropShadow) EFFECT;
+            SIGNATURE.append("drop(").append(shadow.getBlurType()).append(',').append(shadow.getColor()).append(',')
+                     .append(shadow.getRadius()).append(',').append(shadow.getSpread()).append(',')
+                     .append(shadow.getOffsetX()).append(',').append(shadow.getOffsetY()).append(')');
+            appendEffect(SIGNATURE, shadow.getInput());
+        } else if (EFFECT instanceof InnerShadow) {
+            InnerShadow shadow = (InnerShadow) EFFECT;
+            SIGNATURE.append("inner(").append(shadow.getBlurType()).append(',').append(shadow.getColor()).append(',')
+                     .append(shadow.getRadius()).append(',').append(shadow.getChoke()).append(',')
+                     .append(shadow.getOffsetX()).append(',').append(shadow.getOffsetY()).append(')');
+            appendEffect(SIGNATURE, shadow.getInput());
+        } else {
+            // Unknown effects can't be compared by their parameters
+            SIGNATURE.append(EFFECT.getClass().getSimpleName()).append('@').append(System.identityHashCode(EFFECT));
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static final class Sprite {
+        private final Image  image;
+        private final double offsetX;
+        private final double offsetY;
+
+
+        Sprite(final Node NODE, final Bounds BOUNDS) {
+            SnapshotParameters parameters = new SnapshotParameters();
+            parameters.setFill(Color.TRANSPARENT);
+            image   = NODE.snapshot(parameters, null);
+            offsetX = BOUNDS.getMinX() - NODE.getLayoutX();
+            offsetY = BOUNDS.getMinY() - NODE.getLayoutY();
+        }
+
+        public Image getImage() { return image; }
+
+        /**
+         * @return the x offset of the image relative to the layoutX of the node
+         */
+        public double getOffsetX() { return offsetX; }
+
+        /**
+         * @return the y offset of the image relative to the layoutY of the node
+         */
+        public double getOffsetY() { return offsetY; }
+
+        long getBytes() { return (long) image.getWidth() * (long) image.getHeight() * 4L; }
+    }
+
+    /**
+     * Key of a node that is invalidated by the properties it depends on,
+     * including the parameters of the effect chain of the node.
+     */
+    private static final class NodeKey implements InvalidationListener {
+        private final String                     shape;
+        private final Node                       node;
+        private final WeakInvalidationListener   weakListener;
+        private final List<Observable>           effectObservables;
+        private       Key                        key;
+
+
+        NodeKey(final String SHAPE, final Node NODE) {
+            shape             = SHAPE;
+            node              = NODE;
+            weakListener      = new WeakInvalidationListener(this);
+            effectObservables = new ArrayList<>(16);
+            node.rotateProperty().addListener(this);
+            node.boundsInParentProperty().addListener(this);
+            node.effectProperty().addListener(this);
+            if (node instanceof Shape) {
+                Shape shapeNode = (Shape) node;
+                shapeNode.fillProperty().addListener(this);
+                shapeNode.strokeProperty().addListener(this);
+                shapeNode.strokeWidthProperty().addListener(this);
+            }
+            if (node instanceof Text) {
+                Text textNode = (Text) node;
+                textNode.textProperty().addListener(this);
+                textNode.fontProperty().addListener(this);
+            }
+            observeEffects();
+        }
+
+        Key getKey() {
+            if (null == key) {
+                final Bounds BOUNDS = node.getBoundsInParent();
+                key = new Key(shape, (int) Math.ceil(BOUNDS.getWidth()), (int) Math.ceil(BOUNDS.getHeight()), signatureOf(node));
+            }
+            return key;
+        }
+
+        @Override public void invalidated(final Observable OBSERVABLE) {
+            key = null;
+            // The effect or an input of the chain changed
+            if (node.effectProperty() == OBSERVABLE || effectObservables.contains(OBSERVABLE)) { observeEffects(); }
+        }
+
+        void dispose() {
+            node.rotateProperty().removeListener(this);
+            node.boundsInParentProperty().removeListener(this);
+            node.effectProperty().removeListener(this);
+            if (node instanceof Shape) {
+                Shape shapeNode = (Shape) node;
+                shapeNode.fillProperty().removeListener(this);
+                shapeNode.strokeProperty().removeListener(this);
+                shapeNode.strokeWidthProperty().removeListener(this);
+            }
+            if (node instanceof Text) {
+                Text textNode = (Text) node;
+                textNode.textProperty().removeListener(this);
+                textNode.fontProperty().removeListener(this);
+            }
+            for (Observable observable : effectObservables) { observable.removeListener(weakListener); }
+            effectObservables.clear();
+        }
+
+        // The effects can be shared between nodes, so they only get a weak listener
+        private void observeEffects() {
+            for (Observable observable : effectObservables) { observable.removeListener(weakListener); }
+            effectObservables.clear();
+            Effect effect = node.getEffect();
+            while (null != effect) {
+                if (effect instanceof DropShadow) {
+                    DropShadow shadow = (DropShadow) effect;
+                    observe(shadow.blurTypeProperty(), shadow.colorProperty(), shadow.radiusProperty(), shadow.spreadProperty(),
+                            shadow.offsetXProperty(), shadow.offsetYProperty(), shadow.inputProperty());
+                    effect = shadow.getInput();
+                } else if (effect instanceof InnerShadow) {
+                    InnerShadow shadow = (InnerShadow) effect;
+                    observe(shadow.blurTypeProperty(), shadow.colorProperty(), shadow.radiusProperty(), shadow.chokeProperty(),
+                            shadow.offsetXProperty(), shadow.offsetYProperty(), shadow.inputProperty());
+                    effect = shadow.getInput();
+                } else {
+                    // Unknown effects are keyed by their identity, see appendEffect()
+                    effect = null;
+                }
+            }
+        }
+
+        private void observe(final Observable... OBSERVABLES) {
+            for (Observable observable : OBSERVABLES) {
+                observable.addListener(weakListener);
+                effectObservables.add(observable);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String shape;
+        private final int    width;
+        private final int    height;
+        private final String signature;
+
+
+        Key(final String SHAPE, final int WIDTH, final int HEIGHT, final String SIGNATURE) {
+            shape     = SHAPE;
+            width     = WIDTH;
+            height    = HEIGHT;
+            signature = SIGNATURE;
+        }
+
+        @Override public boolean equals(final Object OBJECT) {
+            if (this == OBJECT) return true;
+            if (!(OBJECT instanceof Key)) return false;
+            Key key = (Key) OBJECT;
+            return width == key.width && height == key.height && shape.equals(key.shape) && signature.equals(key.signature);
+        }
+
+        @Override public int hashCode() {
+            int result = shape.hashCode();
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + signature.hashCode();
+            return result;
+        }
+    }
+}
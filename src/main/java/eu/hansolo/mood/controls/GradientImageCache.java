@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.controls;
+
+import javafx.scene.image.Image;
+import javafx.scene.paint.Stop;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+
+/**
+ * Cache for rendered conical gradient images keyed by stops and size (rounded to pixels).
+ * The least recently used images will be evicted as soon as the images take more than
+ * the given number of bytes. getNearest() returns an image of another size for the same
+ * stops that can be scaled while the exact image is rendered.
+ */
+public enum GradientImageCache {
+    INSTANCE;
+
+    public static final long                                     DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    private final       LinkedHashMap<Key, Image>                images;
+    private final       Map<List<Stop>, TreeMap<Integer, Image>> sizesPerStops;
+    private             long                                     usedBytes;
+    private             long                                     maxBytes;
+
+
+    // ******************** Constructors **************************************
+    GradientImageCache() {
+        images        = new LinkedHashMap<>(16, 0.75f, true);
+        sizesPerStops = new HashMap<>();
+        usedBytes     = 0;
+        maxBytes      = DEFAULT_MAX_BYTES;
+    }
+
+
+    // ******************** Methods *******************************************
+    public synchronized Image get(final List<Stop> STOPS, final int SIZE) { return images.get(new Key(STOPS, SIZE)); }
+
+    /**
+     * Returns the cached image for the given stops whose size is closest to the
+     * given size, larger images are preferred because downscaling looks better.
+     * @param STOPS
+     * @param SIZE
+     * @return the cached image for the given stops that is closest in size or null
+     */
+    public synchronized Image getNearest(final List<Stop> STOPS, final int SIZE) {
+        TreeMap<Integer, Image> sizes = sizesPerStops.get(STOPS);
+        if (null == sizes || sizes.isEmpty()) return null;
+        Entry<Integer, Image> larger  = sizes.ceilingEntry(SIZE);
+        Entry<Integer, Image> smaller = sizes.floorEntry(SIZE);
+        Entry<Integer, Image> nearest = null == larger ? smaller : larger;
+        images.get(new Key(STOPS, nearest.getKey())); // mark as recently used
+        return nearest.getValue();
+    }
+
+    public synchronized void put(final List<Stop> STOPS, final int SIZE, final Image IMAGE) {
+        final Key KEY      = new Key(STOPS, SIZE);
+        Image     previous = images.put(KEY, IMAGE);
+        if (null != previous) { usedBytes -= bytesOf(previous); }
+        usedBytes += bytesOf(IMAGE);
+        TreeMap<Integer, Image> sizes = sizesPerStops.get(STOPS);
+        if (null == sizes) {
+            sizes = new TreeMap<>();
+            sizesPerStops.put(STOPS, sizes);
+        }
+        sizes.put(SIZE, IMAGE);
+        evict();
+    }
+
+    public synchronized long getMaxBytes() { return maxBytes; }
+    public synchronized void setMaxBytes(final long MAX_BYTES) {
+        maxBytes = Math.max(0, MAX_BYTES);
+        evict();
+    }
+
+    public synchronized long getUsedBytes() { return usedBytes; }
+
+    public synchronized void clear() {
+        images.clear();
+        sizesPerStops.clear();
+        usedBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Entry<Key, Image>> iterator = images.entrySet().iterator();
+        // Always keep the most recently used image
+        while (usedBytes > maxBytes && images.size() > 1 && iterator.hasNext()) {
+            Entry<Key, Image> eldest = iterator.next();
+            iterator.remove();
+            usedBytes -= bytesOf(eldest.getValue());
+            TreeMap<Integer, Image> sizes = sizesPerStops.get(eldest.getKey().stops);
+            if (null != sizes) {
+                sizes.remove(eldest.getKey().size);
+                if (sizes.isEmpty()) { sizesPerStops.remove(eldest.getKey().stops); }
+            }
+        }
+    }
+
+    private static long bytesOf(final Image IMAGE) { return (long) IMAGE.getWidth() * (long) IMAGE.getHeight() * 4L; }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Key {
+        private final List<Stop> stops;
+        private final int        size;
+
+
+        Key(final List<Stop> STOPS, final int SIZE) {
+            stops = STOPS;
+            size  = SIZE;
+        }
+
+        @Override public boolean equals(final Object OBJECT) {
+            if (this == OBJECT) return true;
+            if (!(OBJECT instanceof Key)) return false;
+            Key key = (Key) OBJECT;
+            return size == key.size && stops.equals(key.stops);
+        }
+
+        @Override public int hashCode() { return 31 * stops.hashCode() + size; }
+    }
+}
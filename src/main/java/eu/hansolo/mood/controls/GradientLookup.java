@@ -31,7 +31,39 @@ import java.util.TreeMap;
  * Created by hansolo on 21.12.15.
  */
 public class GradientLookup {
+    public enum Interpolation {
+        SRGB,       // Linear in gamma encoded sRGB, like LinearGradient
+        LINEAR_RGB, // Linear in linear light rgb
+        HSB,        // Along the hue wheel of hsb2rgb() in MoodFX.ino, takes the shorter way around
+        OKLAB       // Linear in the perceptual OKLab space
+    }
+    public static final int   DEFAULT_TABLE_SIZE = 1024;
+    // Number of straight pieces per segment that approximate the curve of the non SRGB modes
+    private static final int  CURVE_SUBDIVISIONS = 32;
     private Map<Double, Stop> stops;
+    private Interpolation     interpolation;
+    // Compiled form of the stops (sorted by offset)
+    private double[]          offsets;
+    private double[]          reds;
+    private double[]          greens;
+    private double[]          blues;
+    private double[]          opacities;
+    private Color[]           colors;
+    // Polyline of the gradient in rgb space (used by getValueFrom()), the stops for SRGB
+    private double[]          curveOffsets;
+    private double[]          curveReds;
+    private double[]          curveGreens;
+    private double[]          curveBlues;
+    // Per piece of the polyline direction and inverse squared length in rgb space
+    private double[]          segmentDeltaRed;
+    private double[]          segmentDeltaGreen;
+    private double[]          segmentDeltaBlue;
+    private double[]          segmentInvLengthSquared;
+    // Stop colors converted to the color space of the interpolation (3 components per stop)
+    private double[]          components;
+    // Precomputed table of packed argb values, optional for SRGB, always used for the other modes
+    private int               tableSize;
+    private int[]             argbTable;
 
 
     // ******************** Constructors **************************************
@@ -42,7 +74,9 @@ public class GradientLookup {
         this(Arrays.asList(STOPS));
     }
     public GradientLookup(final List<Stop> STOPS) {
-        stops = new TreeMap<>();
+        stops         = new TreeMap<>();
+        interpolation = Interpolation.SRGB;
+        tableSize     = 0;
         for (Stop stop : STOPS) { stops.put(stop.getOffset(), stop); }
         init();
     }
@@ -50,55 +84,174 @@ public class GradientLookup {
 
     // ******************** Initialization ************************************
     private void init() {
-        if (stops.isEmpty()) return;
+        if (!stops.isEmpty()) {
+            double minFraction = Collections.min(stops.keySet());
+            double maxFraction = Collections.max(stops.keySet());
+
+            if (Double.compare(minFraction, 0d) > 0) { stops.put(0.0, new Stop(0.0, stops.get(minFraction).getColor())); }
+            if (Double.compare(maxFraction, 1d) < 0) { stops.put(1.0, new Stop(1.0, stops.get(maxFraction).getColor())); }
+        }
+        compile();
+    }
 
-        double minFraction = Collections.min(stops.keySet());
-        double maxFraction = Collections.max(stops.keySet());
+    private void compile() {
+        final int NO_OF_STOPS = stops.size();
+        offsets   = new double[NO_OF_STOPS];
+        reds      = new double[NO_OF_STOPS];
+        greens    = new double[NO_OF_STOPS];
+        blues     = new double[NO_OF_STOPS];
+        opacities = new double[NO_OF_STOPS];
+        colors    = new Color[NO_OF_STOPS];
+        int i = 0;
+        for (Stop stop : stops.values()) {
+            Color color  = stop.getColor();
+            offsets[i]   = stop.getOffset();
+            reds[i]      = color.getRed();
+            greens[i]    = color.getGreen();
+            blues[i]     = color.getBlue();
+            opacities[i] = color.getOpacity();
+            colors[i]    = color;
+            i++;
+        }
+
+        components = new double[NO_OF_STOPS * 3];
+        if (Interpolation.SRGB != interpolation) {
+            for (int j = 0 ; j < NO_OF_STOPS ; j++) { toComponents(interpolation, reds[j], greens[j], blues[j], components, j * 3); }
+        }
 
-        if (Double.compare(minFraction, 0d) > 0) { stops.put(0.0, new Stop(0.0, stops.get(minFraction).getColor())); }
-        if (Double.compare(maxFraction, 1d) < 0) { stops.put(1.0, new Stop(1.0, stops.get(maxFraction).getColor())); }
+        compileCurve();
+
+        // The perceptual modes are too expensive to be computed per call, so they always use a table
+        argbTable = null;
+        final int SIZE = Interpolation.SRGB == interpolation ? tableSize : (tableSize > 1 ? tableSize : DEFAULT_TABLE_SIZE);
+        if (SIZE > 1 && NO_OF_STOPS > 0) {
+            argbTable = new int[SIZE];
+            final double STEP = 1d / (SIZE - 1);
+            for (int j = 0 ; j < SIZE ; j++) { argbTable[j] = computeArgbAt(j * STEP); }
+        }
+    }
+
+
+    // SRGB is straight between the stops, the other modes are curved in rgb space and
+    // will be approximated by CURVE_SUBDIVISIONS straight pieces between two stops
+    private void compileCurve() {
+        final int NO_OF_STOPS = offsets.length;
+        if (Interpolation.SRGB == interpolation || NO_OF_STOPS < 2) {
+            curveOffsets = offsets;
+            curveReds    = reds;
+            curveGreens  = greens;
+            curveBlues   = blues;
+        } else {
+            final int NO_OF_POINTS = (NO_OF_STOPS - 1) * CURVE_SUBDIVISIONS + 1;
+            curveOffsets = new double[NO_OF_POINTS];
+            curveReds    = new double[NO_OF_POINTS];
+            curveGreens  = new double[NO_OF_POINTS];
+            curveBlues   = new double[NO_OF_POINTS];
+            for (int p = 0 ; p < NO_OF_POINTS ; p++) {
+                final int    STOP     = Math.min(p / CURVE_SUBDIVISIONS, NO_OF_STOPS - 2);
+                final double FRACTION = (p - STOP * CURVE_SUBDIVISIONS) / (double) CURVE_SUBDIVISIONS;
+                final double OFFSET   = offsets[STOP] + FRACTION * (offsets[STOP + 1] - offsets[STOP]);
+                final int    ARGB     = computeArgbAt(OFFSET);
+                curveOffsets[p] = OFFSET;
+                curveReds[p]    = Helper.red(ARGB) / 255d;
+                curveGreens[p]  = Helper.green(ARGB) / 255d;
+                curveBlues[p]   = Helper.blue(ARGB) / 255d;
+            }
+        }
+
+        final int NO_OF_SEGMENTS = Math.max(0, curveOffsets.length - 1);
+        segmentDeltaRed         = new double[NO_OF_SEGMENTS];
+        segmentDeltaGreen       = new double[NO_OF_SEGMENTS];
+        segmentDeltaBlue        = new double[NO_OF_SEGMENTS];
+        segmentInvLengthSquared = new double[NO_OF_SEGMENTS];
+        for (int s = 0 ; s < NO_OF_SEGMENTS ; s++) {
+            segmentDeltaRed[s]   = curveReds[s + 1]   - curveReds[s];
+            segmentDeltaGreen[s] = curveGreens[s + 1] - curveGreens[s];
+            segmentDeltaBlue[s]  = curveBlues[s + 1]  - curveBlues[s];
+            double lengthSquared = segmentDeltaRed[s] * segmentDeltaRed[s] + segmentDeltaGreen[s] * segmentDeltaGreen[s] + segmentDeltaBlue[s] * segmentDeltaBlue[s];
+            segmentInvLengthSquared[s] = Double.compare(lengthSquared, 0d) == 0 ? 0 : 1d / lengthSquared;
+        }
     }
 
 
     // ******************** Methods *******************************************
     public Color getColorAt(final double POSITION_OF_COLOR) {
-        if (stops.isEmpty()) return Color.BLACK;
+        if (offsets.length == 0) return Color.BLACK;
+        if (offsets.length == 1) return colors[0];
 
-        final double POSITION = clamp(0d, 1d, POSITION_OF_COLOR);
-        final Color COLOR;
-        if (stops.size() == 1) {
-            final Map<Double, Color> ONE_ENTRY = (Map<Double, Color>) stops.entrySet().iterator().next();
-            COLOR = stops.get(ONE_ENTRY.keySet().iterator().next()).getColor();
-        } else {
-            Stop lowerBound = stops.get(0.0);
-            Stop upperBound = stops.get(1.0);
-            for (Double fraction : stops.keySet()) {
-                if (Double.compare(fraction,POSITION) < 0) {
-                    lowerBound = stops.get(fraction);
-                }
-                if (Double.compare(fraction, POSITION) > 0) {
-                    upperBound = stops.get(fraction);
-                    break;
-                }
-            }
-            COLOR = interpolateColor(lowerBound, upperBound, POSITION);
+        final double POSITION = Helper.clamp(0d, 1d, POSITION_OF_COLOR);
+        if (Interpolation.SRGB != interpolation) {
+            final int ARGB = argbTable[(int) (POSITION * (argbTable.length - 1) + 0.5)];
+            return Color.rgb(Helper.red(ARGB), Helper.green(ARGB), Helper.blue(ARGB), Helper.alpha(ARGB) / 255d);
+        }
+        final int    INDEX    = Arrays.binarySearch(offsets, POSITION);
+        if (INDEX >= 0) return colors[INDEX];
+
+        final int    UPPER    = -INDEX - 1;
+        final int    LOWER    = UPPER - 1;
+        final double FRACTION = (POSITION - offsets[LOWER]) / (offsets[UPPER] - offsets[LOWER]);
+        return Color.color(interpolate(reds[LOWER], reds[UPPER], FRACTION),
+                           interpolate(greens[LOWER], greens[UPPER], FRACTION),
+                           interpolate(blues[LOWER], blues[UPPER], FRACTION),
+                           interpolate(opacities[LOWER], opacities[UPPER], FRACTION));
+    }
+
+    /**
+     * Returns the color at the given position as packed int (0xAARRGGBB).
+     * If a lookup table was enabled by setTableSize() the value will be taken
+     * from the table, otherwise it will be interpolated. In both cases no
+     * objects will be created.
+     * @param POSITION_OF_COLOR position between 0 and 1
+     * @return the color at the given position as packed argb int
+     */
+    public int getArgbAt(final double POSITION_OF_COLOR) {
+        if (null != argbTable) {
+            final double POSITION = Helper.clamp(0d, 1d, POSITION_OF_COLOR);
+            return argbTable[(int) (POSITION * (argbTable.length - 1) + 0.5)];
         }
-        return COLOR;
+        return computeArgbAt(POSITION_OF_COLOR);
     }
+
+    /**
+     * Returns the position in the gradient whose color is closest to the given color.
+     * The color is projected onto each segment between two stops in rgb space, so
+     * the result is exact and costs O(number of stops). If two positions are equally
+     * close, the lower one wins. For the other interpolation modes the gradient is
+     * curved in rgb space and will be approximated by 32 straight pieces per segment,
+     * so the cost is O(32 * number of stops) and independent of the table size.
+     * @param COLOR
+     * @return the position (0 - 1) of the color in the gradient that is closest to the given color
+     */
     public double getValueFrom(final Color COLOR) {
-        if (stops.isEmpty()) return 0;
-        double red   = COLOR.getRed();
-        double green = COLOR.getGreen();
-        double blue  = COLOR.getBlue();
-        for (double i = 0 ; Double.compare(i, 1d) <= 0 ; i += 0.01) {
-            Color color = getColorAt(i);
-            if(Math.abs(red   - color.getRed()) < 0.05 &&
-               Math.abs(green - color.getGreen()) < 0.05 &&
-               Math.abs(blue  - color.getBlue()) < 0.05) {
-                return i;
+        return getValueFrom(COLOR.getRed(), COLOR.getGreen(), COLOR.getBlue());
+    }
+    public double getValueFrom(final int ARGB) {
+        return getValueFrom(Helper.red(ARGB) / 255d, Helper.green(ARGB) / 255d, Helper.blue(ARGB) / 255d);
+    }
+    private double getValueFrom(final double RED, final double GREEN, final double BLUE) {
+        if (offsets.length == 0) return 0;
+        if (offsets.length == 1) return offsets[0];
+        double minDistance = Double.MAX_VALUE;
+        double value       = 0;
+        for (int s = 0 ; s < segmentInvLengthSquared.length ; s++) {
+            final double DR = RED   - curveReds[s];
+            final double DG = GREEN - curveGreens[s];
+            final double DB = BLUE  - curveBlues[s];
+
+            // Position of the projection on the segment (0 - 1)
+            double t = (DR * segmentDeltaRed[s] + DG * segmentDeltaGreen[s] + DB * segmentDeltaBlue[s]) * segmentInvLengthSquared[s];
+            t = t < 0 ? 0 : (t > 1 ? 1 : t);
+
+            final double ER       = DR - t * segmentDeltaRed[s];
+            final double EG       = DG - t * segmentDeltaGreen[s];
+            final double EB       = DB - t * segmentDeltaBlue[s];
+            final double DISTANCE = ER * ER + EG * EG + EB * EB;
+            if (DISTANCE < minDistance) {
+                minDistance = DISTANCE;
+                value       = curveOffsets[s] + t * (curveOffsets[s + 1] - curveOffsets[s]);
             }
         }
-        return 0;
+        return value;
     }
 
     public List<Stop> getStops() { return new ArrayList<>(stops.values()); }
@@ -109,25 +262,173 @@ public class GradientLookup {
         init();
     }
 
-    private static final <T extends Number> T clamp(final T MIN, final T MAX, final T VALUE) {
-        if (VALUE.doubleValue() < MIN.doubleValue()) return MIN;
-        if (VALUE.doubleValue() > MAX.doubleValue()) return MAX;
-        return VALUE;
+    public int getTableSize() { return tableSize; }
+    /**
+     * Defines the number of entries of the precomputed argb table that
+     * will be used by getArgbAt(). A size of 0 disables the table.
+     * @param SIZE
+     */
+    public void setTableSize(final int SIZE) {
+        tableSize = SIZE < 2 ? 0 : SIZE;
+        compile();
+    }
+
+    public Interpolation getInterpolation() { return interpolation; }
+    /**
+     * Defines the color space the colors between two stops will be interpolated in.
+     * All modes except SRGB will be compiled into a table of getTableSize() entries
+     * (DEFAULT_TABLE_SIZE if no table size was set), so they cost the same at runtime.
+     * @param INTERPOLATION
+     */
+    public void setInterpolation(final Interpolation INTERPOLATION) {
+        interpolation = null == INTERPOLATION ? Interpolation.SRGB : INTERPOLATION;
+        compile();
+    }
+
+    private int computeArgbAt(final double POSITION_OF_COLOR) {
+        if (offsets.length == 0) return 0xFF000000;
+        if (offsets.length == 1) return Helper.toArgb(reds[0], greens[0], blues[0], opacities[0]);
+
+        final double POSITION = Helper.clamp(0d, 1d, POSITION_OF_COLOR);
+        final int    INDEX    = Arrays.binarySearch(offsets, POSITION);
+        if (INDEX >= 0) return Helper.toArgb(reds[INDEX], greens[INDEX], blues[INDEX], opacities[INDEX]);
+
+        final int    UPPER    = -INDEX - 1;
+        final int    LOWER    = UPPER - 1;
+        final double FRACTION = (POSITION - offsets[LOWER]) / (offsets[UPPER] - offsets[LOWER]);
+        if (Interpolation.SRGB != interpolation) {
+            final int    L       = LOWER * 3;
+            final int    U       = UPPER * 3;
+            final double C0      = Interpolation.HSB == interpolation ? interpolateHue(components[L], components[U], components[L + 1], components[U + 1], FRACTION)
+                                                                      : components[L] + (components[U] - components[L]) * FRACTION;
+            final double C1      = components[L + 1] + (components[U + 1] - components[L + 1]) * FRACTION;
+            final double C2      = components[L + 2] + (components[U + 2] - components[L + 2]) * FRACTION;
+            final double OPACITY = interpolate(opacities[LOWER], opacities[UPPER], FRACTION);
+            return fromComponents(interpolation, C0, C1, C2, OPACITY);
+        }
+        return Helper.toArgb(interpolate(reds[LOWER], reds[UPPER], FRACTION),
+                      interpolate(greens[LOWER], greens[UPPER], FRACTION),
+                      interpolate(blues[LOWER], blues[UPPER], FRACTION),
+                      interpolate(opacities[LOWER], opacities[UPPER], FRACTION));
+    }
+
+    private static double interpolate(final double LOWER, final double UPPER, final double FRACTION) {
+        return Helper.clamp(0d, 1d, LOWER + (UPPER - LOWER) * FRACTION);
     }
 
-    private Color interpolateColor(final Stop LOWER_BOUND, final Stop UPPER_BOUND, final double POSITION) {
-        final double POS = (POSITION - LOWER_BOUND.getOffset()) / (UPPER_BOUND.getOffset() - LOWER_BOUND.getOffset());
 
-        final double DELTA_RED     = (UPPER_BOUND.getColor().getRed()     - LOWER_BOUND.getColor().getRed())     * POS;
-        final double DELTA_GREEN   = (UPPER_BOUND.getColor().getGreen()   - LOWER_BOUND.getColor().getGreen())   * POS;
-        final double DELTA_BLUE    = (UPPER_BOUND.getColor().getBlue()    - LOWER_BOUND.getColor().getBlue())    * POS;
-        final double DELTA_OPACITY = (UPPER_BOUND.getColor().getOpacity() - LOWER_BOUND.getColor().getOpacity()) * POS;
+    // ******************** Color spaces **************************************
+    /**
+     * Converts the given sRGB color to the components of the given color space
+     * LINEAR_RGB: red, green, blue in linear light
+     * HSB       : hue (0 - 3) on the hue wheel of the firmware, saturation, brightness
+     * OKLAB     : L, a, b
+     */
+    private static void toComponents(final Interpolation INTERPOLATION, final double RED, final double GREEN, final double BLUE, final double[] RESULT, final int OFFSET) {
+        switch(INTERPOLATION) {
+            case LINEAR_RGB:
+                RESULT[OFFSET]     = toLinear(RED);
+                RESULT[OFFSET + 1] = toLinear(GREEN);
+                RESULT[OFFSET + 2] = toLinear(BLUE);
+                break;
+            case HSB:
+                // hsb2rgb() fades red -> green -> blue -> red, the third component
+                // always stays at brightness * (1 - saturation)
+                final double MIN        = Math.min(RED, Math.min(GREEN, BLUE));
+                final double BRIGHTNESS = RED + GREEN + BLUE - 2 * MIN;
+                final double CHROMA     = BRIGHTNESS - MIN;
+                double hue = 0;
+                if (CHROMA > 0) {
+                    if (BLUE == MIN) {
+                        hue = (GREEN - MIN) / CHROMA;
+                    } else if (RED == MIN) {
+                        hue = 1 + (BLUE - MIN) / CHROMA;
+                    } else {
+                        hue = 2 + (RED - MIN) / CHROMA;
+                    }
+                }
+                RESULT[OFFSET]     = hue;
+                RESULT[OFFSET + 1] = BRIGHTNESS > 0 ? CHROMA / BRIGHTNESS : 0;
+                RESULT[OFFSET + 2] = BRIGHTNESS;
+                break;
+            case OKLAB:
+                final double LR = toLinear(RED);
+                final double LG = toLinear(GREEN);
+                final double LB = toLinear(BLUE);
+                final double L  = Math.cbrt(0.4122214708 * LR + 0.5363325363 * LG + 0.0514459929 * LB);
+                final double M  = Math.cbrt(0.2119034982 * LR + 0.6806995451 * LG + 0.1073969566 * LB);
+                final double S  = Math.cbrt(0.0883024619 * LR + 0.2817188376 * LG + 0.6299787005 * LB);
+                RESULT[OFFSET]     = 0.2104542553 * L + 0.7936177850 * M - 0.0040720468 * S;
+                RESULT[OFFSET + 1] = 1.9779984951 * L - 2.4285922050 * M + 0.4505937099 * S;
+                RESULT[OFFSET + 2] = 0.0259040371 * L + 0.7827717662 * M - 0.8086757660 * S;
+                break;
+            default:
+                RESULT[OFFSET]     = RED;
+                RESULT[OFFSET + 1] = GREEN;
+                RESULT[OFFSET + 2] = BLUE;
+                break;
+        }
+    }
 
-        double red     = clamp(0d, 1d, (LOWER_BOUND.getColor().getRed()     + DELTA_RED));
-        double green   = clamp(0d, 1d, (LOWER_BOUND.getColor().getGreen()   + DELTA_GREEN));
-        double blue    = clamp(0d, 1d, (LOWER_BOUND.getColor().getBlue()    + DELTA_BLUE));
-        double opacity = clamp(0d, 1d, (LOWER_BOUND.getColor().getOpacity() + DELTA_OPACITY));
+    private static int fromComponents(final Interpolation INTERPOLATION, final double C0, final double C1, final double C2, final double OPACITY) {
+        double red;
+        double green;
+        double blue;
+        switch(INTERPOLATION) {
+            case LINEAR_RGB:
+                red   = toSrgb(C0);
+                green = toSrgb(C1);
+                blue  = toSrgb(C2);
+                break;
+            case HSB:
+                final int    SEGMENT = (int) C0 % 3;
+                final double F       = C0 - (int) C0;
+                final double MIN     = C2 * (1 - C1);
+                final double CHROMA  = C2 * C1;
+                switch(SEGMENT) {
+                    case 0 : red = 1 - F; green = F;     blue = 0;     break;
+                    case 1 : red = 0;     green = 1 - F; blue = F;     break;
+                    default: red = F;     green = 0;     blue = 1 - F; break;
+                }
+                red   = MIN + CHROMA * red;
+                green = MIN + CHROMA * green;
+                blue  = MIN + CHROMA * blue;
+                break;
+            case OKLAB:
+                final double L = cube(C0 + 0.3963377774 * C1 + 0.2158037573 * C2);
+                final double M = cube(C0 - 0.1055613458 * C1 - 0.0638541728 * C2);
+                final double S = cube(C0 - 0.0894841775 * C1 - 1.2914855480 * C2);
+                red   = toSrgb( 4.0767416621 * L - 3.3077115913 * M + 0.2309699292 * S);
+                green = toSrgb(-1.2684380046 * L + 2.6097574011 * M - 0.3413193965 * S);
+                blue  = toSrgb(-0.0041960863 * L - 0.7034186147 * M + 1.7076147010 * S);
+                break;
+            default:
+                red   = C0;
+                green = C1;
+                blue  = C2;
+                break;
+        }
+        return Helper.toArgb(red, green, blue, OPACITY);
+    }
 
-        return Color.color(red, green, blue, opacity);
+    // The hue wheel has a period of 3, gray has no hue and takes the one of the other color
+    private static double interpolateHue(final double LOWER, final double UPPER, final double LOWER_SATURATION, final double UPPER_SATURATION, final double FRACTION) {
+        final double FROM  = LOWER_SATURATION > 0 ? LOWER : UPPER;
+        final double TO    = UPPER_SATURATION > 0 ? UPPER : LOWER;
+        double       delta = TO - FROM;
+        if (delta > 1.5) {
+            delta -= 3;
+        } else if (delta < -1.5) {
+            delta += 3;
+        }
+        double hue = FROM + delta * FRACTION;
+        if (hue < 0) { hue += 3; }
+        return hue >= 3 ? hue - 3 : hue;
     }
+
+    private static double toLinear(final double VALUE) { return VALUE <= 0.04045 ? VALUE / 12.92 : Math.pow((VALUE + 0.055) / 1.055, 2.4); }
+
+    private static double toSrgb(final double VALUE) { return VALUE <= 0.0031308 ? VALUE * 12.92 : 1.055 * Math.pow(VALUE, 1 / 2.4) - 0.055; }
+
+    private static double cube(final double VALUE) { return VALUE * VALUE * VALUE; }
 }
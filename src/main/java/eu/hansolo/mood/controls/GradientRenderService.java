@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.controls;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.paint.ImagePattern;
+import javafx.scene.paint.Stop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+
+/**
+ * Renders conical gradient images off the FX application thread.
+ * A request first publishes a preview (a scaled cached image or a low
+ * resolution render) and replaces it with the full resolution image when
+ * that is ready. A new request cancels the one that is still running.
+ * All patterns will be handed to the consumer on the FX application thread.
+ */
+public class GradientRenderService {
+    private static final int             PREVIEW_DIVISOR  = 4;
+    private static final int             MIN_PREVIEW_SIZE = 32;
+    private static final ExecutorService RENDERER         = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Gradient Renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Consumer<ImagePattern> consumer;
+    private       AtomicBoolean          cancelled;
+
+
+    // ******************** Constructors **************************************
+    public GradientRenderService(final Consumer<ImagePattern> CONSUMER) {
+        consumer  = CONSUMER;
+        cancelled = new AtomicBoolean(false);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Requests an image pattern of the given gradient with the given size.
+     * Has to be called on the FX application thread.
+     * @param GRADIENT
+     * @param SIZE
+     */
+    public void render(final ConicalGradient GRADIENT, final double SIZE) {
+        cancelled.set(true);
+        final AtomicBoolean CANCELLED  = new AtomicBoolean(false);
+        cancelled = CANCELLED;
+
+        final int        PIXEL_SIZE = Math.max(1, (int) Math.round(SIZE));
+        final List<Stop> STOPS      = new ArrayList<>(GRADIENT.getStops());
+        final Image      EXACT      = GradientImageCache.INSTANCE.get(STOPS, PIXEL_SIZE);
+        if (null != EXACT) {
+            consumer.accept(createPattern(EXACT, SIZE));
+            return;
+        }
+
+        final Image NEAREST = GradientImageCache.INSTANCE.getNearest(STOPS, PIXEL_SIZE);
+        if (null != NEAREST) { consumer.accept(createPattern(NEAREST, SIZE)); }
+
+        RENDERER.execute(() -> {
+            if (CANCELLED.get()) return;
+            if (null == NEAREST) {
+                final int   PREVIEW_SIZE = Math.min(PIXEL_SIZE, Math.max(MIN_PREVIEW_SIZE, PIXEL_SIZE / PREVIEW_DIVISOR));
+                final Image PREVIEW      = GRADIENT.createCenteredImage(PREVIEW_SIZE, PREVIEW_SIZE, CANCELLED);
+                publish(PREVIEW, SIZE, CANCELLED);
+                if (PREVIEW_SIZE == PIXEL_SIZE) {
+                    if (null != PREVIEW) { GradientImageCache.INSTANCE.put(STOPS, PIXEL_SIZE, PREVIEW); }
+                    return;
+                }
+            }
+            final Image IMAGE = GRADIENT.createCenteredImage(PIXEL_SIZE, PIXEL_SIZE, CANCELLED);
+            if (null == IMAGE) return;
+            GradientImageCache.INSTANCE.put(STOPS, PIXEL_SIZE, IMAGE);
+            publish(IMAGE, SIZE, CANCELLED);
+        });
+    }
+
+    /**
+     * Cancels the currently running request.
+     */
+    public void cancel() { cancelled.set(true); }
+
+    private void publish(final Image IMAGE, final double SIZE, final AtomicBoolean CANCELLED) {
+        if (null == IMAGE || CANCELLED.get()) return;
+        final ImagePattern PATTERN = createPattern(IMAGE, SIZE);
+        Platform.runLater(() -> { if (!CANCELLED.get()) { consumer.accept(PATTERN); } });
+    }
+
+    private static ImagePattern createPattern(final Image IMAGE, final double SIZE) { return new ImagePattern(IMAGE, 0, 0, SIZE, SIZE, false); }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.controls;
+
+/**
+ * Numeric helpers for the controls. All methods work on primitives,
+ * so nothing will be boxed on the rendering paths.
+ */
+public final class Helper {
+
+    // ******************** Constructors **************************************
+    private Helper() {}
+
+
+    // ******************** Methods *******************************************
+    public static double clamp(final double MIN, final double MAX, final double VALUE) {
+        if (VALUE < MIN) return MIN;
+        if (VALUE > MAX) return MAX;
+        return VALUE;
+    }
+    public static int clamp(final int MIN, final int MAX, final int VALUE) {
+        if (VALUE < MIN) return MIN;
+        if (VALUE > MAX) return MAX;
+        return VALUE;
+    }
+    public static long clamp(final long MIN, final long MAX, final long VALUE) {
+        if (VALUE < MIN) return MIN;
+        if (VALUE > MAX) return MAX;
+        return VALUE;
+    }
+
+    /**
+     * @param VALUE
+     * @return the given value clamped to a color channel (0 - 255)
+     */
+    public static int clampChannel(final int VALUE) { return VALUE < 0 ? 0 : (VALUE > 255 ? 255 : VALUE); }
+
+    /**
+     * Packs the given color components (0 - 1) into an argb int (0xAARRGGBB),
+     * values out of range will be clamped.
+     */
+    public static int toArgb(final double RED, final double GREEN, final double BLUE, final double OPACITY) {
+        return packArgb((int) (clamp(0d, 1d, OPACITY) * 255 + 0.5),
+                      (int) (clamp(0d, 1d, RED) * 255 + 0.5),
+                      (int) (clamp(0d, 1d, GREEN) * 255 + 0.5),
+                      (int) (clamp(0d, 1d, BLUE) * 255 + 0.5));
+    }
+    /**
+     * Packs the given channels (0 - 255) into an argb int (0xAARRGGBB),
+     * values out of range will be clamped. Unlike toArgb() the alpha
+     * channel comes first, hence the different name.
+     */
+    public static int packArgb(final int ALPHA, final int RED, final int GREEN, final int BLUE) {
+        return clampChannel(ALPHA) << 24 | clampChannel(RED) << 16 | clampChannel(GREEN) << 8 | clampChannel(BLUE);
+    }
+
+    public static int alpha(final int ARGB) { return (ARGB >>> 24) & 0xFF; }
+    public static int red(final int ARGB) { return (ARGB >> 16) & 0xFF; }
+    public static int green(final int ARGB) { return (ARGB >> 8) & 0xFF; }
+    public static int blue(final int ARGB) { return ARGB & 0xFF; }
+}
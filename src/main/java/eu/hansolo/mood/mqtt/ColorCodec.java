@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+/**
+ * Encodes and decodes the color payloads of the lamp protocol.
+ * Colors are passed around as packed ARGB ints and all methods work
+ * on byte arrays provided by the caller, so nothing is allocated per message.
+ *
+ * TEXT   : "rrggbb" hex (optional leading '#') or "r,g,b" decimal
+ * BINARY : 3 bytes r,g,b or 4 bytes r,g,b,a
+ * FRAME  : 'M', pixel count, count * (r,g,b)
+ */
+public final class ColorCodec {
+    public enum Format { TEXT, BINARY }
+    public  static final int    TEXT_LENGTH      = 6;
+    public  static final int    RGB_LENGTH       = 3;
+    public  static final int    RGBA_LENGTH      = 4;
+    public  static final byte   FRAME_MARKER     = 'M';
+    public  static final int    FRAME_HEADER     = 2;
+    public  static final int    MAX_FRAME_PIXELS = 255;
+    private static final byte[] HEX_DIGITS       = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+    private static final byte[] MOOD_COMMAND     = { 'm', 'o', 'o', 'd' };
+
+
+    // ******************** Constructors **************************************
+    private ColorCodec() {}
+
+
+    // ******************** Encoding ******************************************
+    public static int getEncodedLength(final Format FORMAT) { return Format.BINARY == FORMAT ? RGB_LENGTH : TEXT_LENGTH; }
+
+    /**
+     * Writes the rgb part of the given color in the given format to the buffer
+     * @param ARGB
+     * @param FORMAT
+     * @param BUFFER
+     * @param OFFSET
+     * @return the number of bytes written
+     */
+    public static int encode(final int ARGB, final Format FORMAT, final byte[] BUFFER, final int OFFSET) {
+        return Format.BINARY == FORMAT ? encodeRgb(ARGB, BUFFER, OFFSET) : encodeText(ARGB, BUFFER, OFFSET);
+    }
+
+    public static int encodeText(final int ARGB, final byte[] BUFFER, final int OFFSET) {
+        for (int i = 0 ; i < TEXT_LENGTH ; i++) {
+            BUFFER[OFFSET + i] = HEX_DIGITS[(ARGB >> (20 - i * 4)) & 0xF];
+        }
+        return TEXT_LENGTH;
+    }
+
+    public static int encodeRgb(final int ARGB, final byte[] BUFFER, final int OFFSET) {
+        BUFFER[OFFSET]     = (byte) (ARGB >> 16);
+        BUFFER[OFFSET + 1] = (byte) (ARGB >> 8);
+        BUFFER[OFFSET + 2] = (byte) ARGB;
+        return RGB_LENGTH;
+    }
+
+    public static int encodeRgba(final int ARGB, final byte[] BUFFER, final int OFFSET) {
+        encodeRgb(ARGB, BUFFER, OFFSET);
+        BUFFER[OFFSET + 3] = (byte) (ARGB >>> 24);
+        return RGBA_LENGTH;
+    }
+
+    /**
+     * Writes a multi pixel frame, the buffer needs FRAME_HEADER + 3 * COUNT bytes
+     * @param PIXELS packed ARGB colors
+     * @param COUNT number of pixels to write, max. 255
+     * @param BUFFER
+     * @return the number of bytes written
+     */
+    public static int encodeFrame(final int[] PIXELS, final int COUNT, final byte[] BUFFER) {
+        final int N = Math.min(Math.min(COUNT, PIXELS.length), MAX_FRAME_PIXELS);
+        BUFFER[0] = FRAME_MARKER;
+        BUFFER[1] = (byte) N;
+        int offset = FRAME_HEADER;
+        for (int i = 0 ; i < N ; i++) { offset += encodeRgb(PIXELS[i], BUFFER, offset); }
+        return offset;
+    }
+
+
+    // ******************** Decoding ******************************************
+    public static boolean isMoodCommand(final byte[] PAYLOAD) {
+        if (null == PAYLOAD || PAYLOAD.length != MOOD_COMMAND.length) return false;
+        for (int i = 0 ; i < MOOD_COMMAND.length ; i++) { if (PAYLOAD[i] != MOOD_COMMAND[i]) return false; }
+        return true;
+    }
+
+    public static boolean isFrame(final byte[] PAYLOAD) {
+        return null != PAYLOAD && PAYLOAD.length >= FRAME_HEADER && FRAME_MARKER == PAYLOAD[0] &&
+               PAYLOAD.length == FRAME_HEADER + (PAYLOAD[1] & 0xFF) * RGB_LENGTH;
+    }
+
+    public static boolean isText(final byte[] PAYLOAD) { return isMoodCommand(PAYLOAD) || isHex(PAYLOAD) || isDecimal(PAYLOAD); }
+
+    /**
+     * Guesses the format a lamp is talking from one of its payloads
+     * @param PAYLOAD
+     * @param CURRENT the format that will be returned if the payload is ambiguous
+     * @return the detected format
+     */
+    public static Format detectFormat(final byte[] PAYLOAD, final Format CURRENT) {
+        if (isText(PAYLOAD)) return Format.TEXT;
+        if (null == PAYLOAD) return CURRENT;
+        if (RGB_LENGTH == PAYLOAD.length || RGBA_LENGTH == PAYLOAD.length || isFrame(PAYLOAD)) return Format.BINARY;
+        return CURRENT;
+    }
+
+    /**
+     * Decodes a color payload in the given format, for a frame the first pixel will be returned.
+     * @param PAYLOAD
+     * @param FORMAT
+     * @param DEFAULT_ARGB returned if the payload is no valid color
+     * @return the decoded color as packed ARGB
+     */
+    public static int decode(final byte[] PAYLOAD, final Format FORMAT, final int DEFAULT_ARGB) {
+        if (null == PAYLOAD) return DEFAULT_ARGB;
+        if (Format.BINARY == FORMAT) {
+            if (isFrame(PAYLOAD)) return 0 == PAYLOAD[1] ? DEFAULT_ARGB : decodeRgb(PAYLOAD, FRAME_HEADER);
+            switch(PAYLOAD.length) {
+                case RGB_LENGTH : return decodeRgb(PAYLOAD, 0);
+                case RGBA_LENGTH: return decodeRgba(PAYLOAD, 0);
+                default         : return DEFAULT_ARGB;
+            }
+        }
+        if (isHex(PAYLOAD)) return decodeHex(PAYLOAD);
+        if (isDecimal(PAYLOAD)) return decodeDecimal(PAYLOAD);
+        return DEFAULT_ARGB;
+    }
+
+    /**
+     * Decodes all pixels of a frame into the given array
+     * @param PAYLOAD
+     * @param PIXELS
+     * @return the number of decoded pixels or -1 if the payload is no frame
+     */
+    public static int decodeFrame(final byte[] PAYLOAD, final int[] PIXELS) {
+        if (!isFrame(PAYLOAD)) return -1;
+        final int N = Math.min(PAYLOAD[1] & 0xFF, PIXELS.length);
+        for (int i = 0 ; i < N ; i++) { PIXELS[i] = decodeRgb(PAYLOAD, FRAME_HEADER + i * RGB_LENGTH); }
+        return N;
+    }
+
+    private static int decodeRgb(final byte[] PAYLOAD, final int OFFSET) {
+        return 0xFF000000 | (PAYLOAD[OFFSET] & 0xFF) << 16 | (PAYLOAD[OFFSET + 1] & 0xFF) << 8 | (PAYLOAD[OFFSET + 2] & 0xFF);
+    }
+
+    private static int decodeRgba(final byte[] PAYLOAD, final int OFFSET) {
+        return (PAYLOAD[OFFSET + 3] & 0xFF) << 24 | (PAYLOAD[OFFSET] & 0xFF) << 16 | (PAYLOAD[OFFSET + 1] & 0xFF) << 8 | (PAYLOAD[OFFSET + 2] & 0xFF);
+    }
+
+    private static boolean isHex(final byte[] PAYLOAD) {
+        if (null == PAYLOAD) return false;
+        final int START = hexStart(PAYLOAD);
+        if (PAYLOAD.length - START != TEXT_LENGTH) return false;
+        for (int i = START ; i < PAYLOAD.length ; i++) { if (hexValue(PAYLOAD[i]) < 0) return false; }
+        return true;
+    }
+
+    private static int decodeHex(final byte[] PAYLOAD) {
+        int rgb = 0;
+        for (int i = hexStart(PAYLOAD) ; i < PAYLOAD.length ; i++) { rgb = (rgb << 4) | hexValue(PAYLOAD[i]); }
+        return 0xFF000000 | rgb;
+    }
+
+    private static int hexStart(final byte[] PAYLOAD) { return PAYLOAD.length > 0 && '#' == PAYLOAD[0] ? 1 : 0; }
+
+    private static int hexValue(final byte DIGIT) {
+        if (DIGIT >= '0' && DIGIT <= '9') return DIGIT - '0';
+        if (DIGIT >= 'a' && DIGIT <= 'f') return DIGIT - 'a' + 10;
+        if (DIGIT >= 'A' && DIGIT <= 'F') return DIGIT - 'A' + 10;
+        return -1;
+    }
+
+    // "r,g,b" with 1 to 3 digits per component
+    private static boolean isDecimal(final byte[] PAYLOAD) {
+        if (null == PAYLOAD) return false;
+        int components = 1;
+        int digits     = 0;
+        for (byte b : PAYLOAD) {
+            if (b >= '0' && b <= '9') {
+                if (++digits > 3) return false;
+            } else if (',' == b && digits > 0 && components < 3) {
+                components++;
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+        return 3 == components && digits > 0;
+    }
+
+    private static int decodeDecimal(final byte[] PAYLOAD) {
+        int rgb   = 0;
+        int value = 0;
+        for (byte b : PAYLOAD) {
+            if (',' == b) {
+                rgb   = (rgb << 8) | Math.min(value, 255);
+                value = 0;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        return 0xFF000000 | (rgb << 8) | Math.min(value, 255);
+    }
+}
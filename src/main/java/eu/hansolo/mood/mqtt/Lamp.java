@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+/**
+ * A lamp listens for commands on PREFIX/ID and publishes its
+ * current color on PREFIX/ID/msg (see MoodFX.ino).
+ */
+public class Lamp {
+    public static final String            STATUS_SUFFIX = "/msg";
+    public final        String            ID;
+    public final        Topic             COMMAND_TOPIC;
+    public final        Topic             STATUS_TOPIC;
+    public final        LampListener      LISTENER;
+    private volatile    ColorCodec.Format format;
+
+
+    // ******************** Constructors **************************************
+    Lamp(final String PREFIX, final String ID, final LampListener LISTENER) {
+        this.ID       = ID;
+        COMMAND_TOPIC = new Topic(PREFIX + "/" + ID, MqttManager.QOS_0);
+        STATUS_TOPIC  = new Topic(PREFIX + "/" + ID + STATUS_SUFFIX, MqttManager.QOS_0);
+        this.LISTENER = LISTENER;
+        format        = ColorCodec.Format.TEXT;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * The payload format the lamp understands, will be switched by MqttManager
+     * as soon as the lamp publishes its status in another format.
+     * @return the payload format of the lamp
+     */
+    public ColorCodec.Format getFormat() { return format; }
+    public void setFormat(final ColorCodec.Format FORMAT) { format = null == FORMAT ? ColorCodec.Format.TEXT : FORMAT; }
+
+    @Override public String toString() {
+        return new StringBuilder("{").append("\n\"id\":").append(ID).append("\n\"command\":").append(COMMAND_TOPIC.NAME).append("\n\"status\":").append(STATUS_TOPIC.NAME).append("\n}").toString();
+    }
+}
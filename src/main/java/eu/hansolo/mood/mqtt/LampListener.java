@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.EventListener;
+
+
+public interface LampListener extends EventListener {
+    /**
+     * Called for messages that were sent to the lamp (e.g. by another client)
+     */
+    void onCommand(Lamp lamp, MqttMessage message);
+
+    /**
+     * Called for messages the lamp published about its current state
+     */
+    void onStatus(Lamp lamp, MqttMessage message);
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock free histogram for durations with one bucket per power of two
+ * microseconds, so recording is a few atomic increments and the
+ * percentiles are exact to a factor of two, which is enough to see
+ * how a connection behaves.
+ */
+public class LatencyHistogram {
+    private static final int             BUCKETS = 40; // 2^39 microseconds are about 6 days
+    private final        AtomicLongArray counts;
+    private final        AtomicLong      count;
+    private final        AtomicLong      sum;
+    private final        AtomicLong      max;
+
+
+    // ******************** Constructors **************************************
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count  = new AtomicLong(0);
+        sum    = new AtomicLong(0);
+        max    = new AtomicLong(0);
+    }
+
+
+    // ******************** Methods *******************************************
+    public void record(final long NANOS) {
+        final long MICROS = Math.max(0, TimeUnit.NANOSECONDS.toMicros(NANOS));
+        final int  BUCKET = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(MICROS));
+        counts.incrementAndGet(BUCKET);
+        count.incrementAndGet();
+        sum.addAndGet(MICROS);
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (MICROS > currentMax && !max.compareAndSet(currentMax, MICROS));
+    }
+
+    public long getCount() { return count.get(); }
+
+    public double getTotalMillis() { return sum.get() / 1000.0; }
+
+    public double getMeanMillis() {
+        final long COUNT = count.get();
+        return 0 == COUNT ? 0 : sum.get() / 1000.0 / COUNT;
+    }
+
+    public double getMaxMillis() { return max.get() / 1000.0; }
+
+    /**
+     * @param PERCENTILE between 0 and 100
+     * @return the upper bound of the bucket that contains the given percentile in ms
+     */
+    public double getPercentileMillis(final double PERCENTILE) {
+        final long COUNT = count.get();
+        if (0 == COUNT) return 0;
+        final long RANK = Math.max(1, (long) Math.ceil(PERCENTILE / 100.0 * COUNT));
+        long seen = 0;
+        for (int i = 0 ; i < BUCKETS ; i++) {
+            seen += counts.get(i);
+            if (seen >= RANK) return Math.min(max.get(), (1L << i) - 1) / 1000.0;
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        for (int i = 0 ; i < BUCKETS ; i++) { counts.set(i, 0); }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override public String toString() {
+        return String.format("count %d, p50 %.1f ms, p99 %.1f ms, max %.1f ms", getCount(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import java.util.EventListener;
+import java.util.List;
+
+
+/**
+ * Receives all events that were drained from the dispatcher in one go.
+ * The list is only valid during the call and must not be kept.
+ */
+public interface MqttBatchListener extends EventListener {
+    void onMqttEvents(List<MqttEvent> events);
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Completion handle for a message handed to MqttManager.publish().
+ * The publish call itself never blocks, callers that need to know
+ * the outcome can register a listener or wait explicitly.
+ */
+public class MqttDelivery {
+    public enum State { QUEUED, IN_FLIGHT, DELIVERED, FAILED }
+    public final  String               TOPIC;
+    public final  MqttMessage          MESSAGE;
+    private final CountDownLatch       latch;
+    private volatile State             state;
+    private volatile Throwable         cause;
+    private MqttDeliveryListener       listener;
+
+
+    // ******************** Constructors **************************************
+    MqttDelivery(final String TOPIC, final MqttMessage MESSAGE) {
+        this.TOPIC   = TOPIC;
+        this.MESSAGE = MESSAGE;
+        latch        = new CountDownLatch(1);
+        state        = State.QUEUED;
+    }
+
+
+    // ******************** Methods *******************************************
+    public State getState() { return state; }
+
+    public boolean isDone() { return State.DELIVERED == state || State.FAILED == state; }
+
+    public boolean isDelivered() { return State.DELIVERED == state; }
+
+    public Throwable getCause() { return cause; }
+
+    /**
+     * Blocks the calling thread until the message was delivered or failed.
+     * Only meant for callers that really need it, e.g. on shutdown.
+     * @param TIMEOUT max time to wait in milliseconds
+     * @return true if the delivery is done
+     * @throws InterruptedException
+     */
+    public boolean waitForCompletion(final long TIMEOUT) throws InterruptedException {
+        return latch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The given listener will be called on the MQTT callback thread once the
+     * delivery is done. If it is already done the listener will be called
+     * immediately on the calling thread.
+     * @param LISTENER
+     */
+    public void setOnDeliveryComplete(final MqttDeliveryListener LISTENER) {
+        synchronized (this) {
+            if (!isDone()) {
+                listener = LISTENER;
+                return;
+            }
+        }
+        if (null != LISTENER) { LISTENER.onDeliveryComplete(this); }
+    }
+
+    void setInFlight() { state = State.IN_FLIGHT; }
+
+    void complete() { finish(State.DELIVERED, null); }
+
+    void fail(final Throwable CAUSE) { finish(State.FAILED, CAUSE); }
+
+    private void finish(final State STATE, final Throwable CAUSE) {
+        final MqttDeliveryListener LISTENER;
+        synchronized (this) {
+            if (isDone()) return;
+            cause    = CAUSE;
+            state    = STATE;
+            LISTENER = listener;
+            listener = null;
+        }
+        latch.countDown();
+        if (null != LISTENER) { LISTENER.onDeliveryComplete(this); }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import eu.hansolo.mood.mqtt.MqttEvent.MqttEventType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+
+/**
+ * Bounded ring buffer between the Paho callback thread and the MqttEventListeners.
+ * Events are drained in batches by a dedicated thread so that a slow listener
+ * can't stall the inbound MQTT traffic or the keep-alive of the client.
+ * If the buffer is full the OverflowPolicy decides what happens with the new event,
+ * CONNECTED and DISCONNECTED events are never dropped and always block instead.
+ * A listener that dispatches an event on the dispatcher thread itself is never
+ * blocked, if the buffer is full the event is kept in an overflow list that is
+ * delivered right after the events that were buffered before it.
+ */
+public class MqttEventDispatcher {
+    public enum OverflowPolicy {
+        DROP_OLDEST, // Drop the oldest buffered event
+        COALESCE,    // Replace a buffered message on the same topic, drop the oldest if there is none
+        BLOCK        // Block the producer until there is space in the buffer
+    }
+    public static final int                       DEFAULT_CAPACITY = 1024;
+    public static final int                       MAX_BATCH_SIZE   = 64;
+    private final       MqttEvent[]               buffer;
+    private final       ReentrantLock             lock;
+    private final       Condition                 notEmpty;
+    private final       Condition                 notFull;
+    private final       Consumer<List<MqttEvent>> consumer;
+    private final       ExecutorService           executor;
+    private final       List<MqttEvent>           overflow;
+    private volatile    Thread                    dispatcherThread;
+    private             int                       head;
+    private             int                       size;
+    private             int                       eventsBeforeOverflow;
+    private volatile    OverflowPolicy            overflowPolicy;
+    private volatile    long                      droppedEvents;
+    private volatile    long                      coalescedEvents;
+
+
+    // ******************** Constructors **************************************
+    MqttEventDispatcher(final int CAPACITY, final OverflowPolicy POLICY, final Consumer<List<MqttEvent>> CONSUMER) {
+        buffer         = new MqttEvent[Math.max(1, CAPACITY)];
+        lock           = new ReentrantLock();
+        notEmpty       = lock.newCondition();
+        notFull        = lock.newCondition();
+        consumer       = CONSUMER;
+        overflowPolicy = POLICY;
+        overflow       = new ArrayList<>(4);
+        executor       = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MQTT Dispatcher");
+            thread.setDaemon(true);
+            dispatcherThread = thread;
+            return thread;
+        });
+        executor.execute(this::drain);
+    }
+
+
+    // ******************** Methods *******************************************
+    public OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+    public void setOverflowPolicy(final OverflowPolicy POLICY) { overflowPolicy = null == POLICY ? OverflowPolicy.DROP_OLDEST : POLICY; }
+
+    public long getDroppedEvents() { return droppedEvents; }
+
+    public long getCoalescedEvents() { return coalescedEvents; }
+
+    public int getCapacity() { return buffer.length; }
+
+    public int getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the given event over to the dispatcher thread. Only blocks if the
+     * buffer is full and either the policy is BLOCK or the event is no MESSAGE.
+     * @param EVENT
+     */
+    public void dispatch(final MqttEvent EVENT) {
+        lock.lock();
+        try {
+            final boolean IS_MESSAGE = MqttEventType.MESSAGE == EVENT.TYPE;
+            // Only the dispatcher thread can make space, so it must never wait for it
+            final boolean REENTRANT  = Thread.currentThread() == dispatcherThread;
+            if (REENTRANT && !overflow.isEmpty()) {
+                overflow.add(EVENT);
+                return;
+            }
+            if (size == buffer.length) {
+                final OverflowPolicy POLICY = IS_MESSAGE ? overflowPolicy : OverflowPolicy.BLOCK;
+                switch(POLICY) {
+                    case COALESCE:
+                        if (coalesce(EVENT)) return;
+                        dropOldest();
+                        break;
+                    case DROP_OLDEST:
+                        dropOldest();
+                        break;
+                    case BLOCK:
+                        if (REENTRANT) {
+                            eventsBeforeOverflow = size;
+                            overflow.add(EVENT);
+                            return;
+                        }
+                        while (size == buffer.length) { notFull.awaitUninterruptibly(); }
+                        break;
+                }
+            }
+            buffer[(head + size) % buffer.length] = EVENT;
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() { executor.shutdownNow(); }
+
+    private boolean coalesce(final MqttEvent EVENT) {
+        for (int i = size - 1 ; i >= 0 ; i--) {
+            final int       INDEX    = (head + i) % buffer.length;
+            final MqttEvent BUFFERED = buffer[INDEX];
+            if (MqttEventType.MESSAGE == BUFFERED.TYPE && EVENT.TOPIC.equals(BUFFERED.TOPIC)) {
+                buffer[INDEX] = EVENT;
+                coalescedEvents++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dropOldest() {
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        size--;
+        droppedEvents++;
+    }
+
+    private void drain() {
+        final List<MqttEvent> BATCH = new ArrayList<>(MAX_BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            lock.lock();
+            try {
+                while (0 == size && overflow.isEmpty()) { notEmpty.await(); }
+                while (size > 0 && BATCH.size() < MAX_BATCH_SIZE && (overflow.isEmpty() || eventsBeforeOverflow > 0)) {
+                    BATCH.add(buffer[head]);
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    size--;
+                    if (!overflow.isEmpty()) { eventsBeforeOverflow--; }
+                }
+                if (!overflow.isEmpty() && 0 == eventsBeforeOverflow) {
+                    BATCH.addAll(overflow);
+                    overflow.clear();
+                }
+                notFull.signalAll();
+            } catch (InterruptedException exception) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                consumer.accept(BATCH);
+            } catch (RuntimeException exception) {
+                // A failing listener must not stop the dispatcher thread
+            }
+            BATCH.clear();
+        }
+    }
+}
@@ -16,23 +16,41 @@
 
 package eu.hansolo.mood.mqtt;
 
-import eu.hansolo.mood.MainView;
 import eu.hansolo.mood.mqtt.MqttEvent.MqttEventType;
+import eu.hansolo.mood.mqtt.MqttEventDispatcher.OverflowPolicy;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttTopic;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -41,6 +59,12 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public enum MqttManager implements MqttCallback {
     INSTANCE;
 
+    /**
+     * DISCONNECTED -> CONNECTING -> CONNECTED -> BACKING_OFF -> CONNECTING -> ...
+     * disconnect() goes through CLOSING to DISCONNECTED from every state.
+     */
+    public enum ConnectionState { DISCONNECTED, CONNECTING, CONNECTED, BACKING_OFF, CLOSING }
+
     public static final  int                QOS_0            = 0;
     public static final  int                QOS_1            = 1;
     public static final  int                QOS_2            = 2;
@@ -48,27 +72,97 @@ public enum MqttManager implements MqttCallback {
     public static final  boolean            NOT_RETAINED     = false;
     public static final  MqttEvent          CONNECT_EVENT    = new MqttEvent(MqttManager.INSTANCE, MqttEventType.CONNECTED, null, null);
     public static final  MqttEvent          DISCONNECT_EVENT = new MqttEvent(MqttManager.INSTANCE, MqttEventType.DISCONNECTED, null, null);
-
-    private              String             brokerAddress;
-    private              int                brokerPort;
-    private              String             clientId;
-    private              String             userName;
-    private              String             password;
-    private              Topic              huzzahIncoming;
-    private              Topic              huzzahOutgoing;
-
-    private              MqttClient         client;
+    public static final  int                MAX_IN_FLIGHT    = 10;   // Paho refuses more than 10 unacknowledged messages
+    public static final  int                MAX_QUEUED       = 256;
+    public static final  long               OUTBOX_INTERVAL  = 50;   // max. 20 coalesced updates per second and topic
+    public static final  String             DEFAULT_LAMP_TOPIC_PREFIX = "huzzah";
+    public static final  String             DEFAULT_LAMP_ID           = "1";
+    public static final  long               RECONNECT_BASE_DELAY      = 5_000;   // ms
+    public static final  long               RECONNECT_MAX_DELAY       = 300_000; // ms
+    public static final  int                JOURNAL_DRAIN_RATE        = 20;      // messages per second
+    private static final long               CLOSE_TIMEOUT             = 2_000;   // ms to disconnect a replaced client
+
+    // Set by the UI or the settings store, read by the thread that connects
+    private volatile     String             brokerAddress;
+    private volatile     int                brokerPort;
+    private volatile     String             clientId;
+    private volatile     String             userName;
+    private volatile     String             password;
+
+    private volatile     MqttAsyncClient    client; // replaced under the lock of the manager
     private              MqttConnectOptions clientConnectOptions;
 
-    private              List<Topic>        subscribedTopics;
+    // Publishing
+    private final        Semaphore                   inFlightPermits    = new Semaphore(MAX_IN_FLIGHT);
+    private final        Set<MqttDelivery>           inFlightDeliveries = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final        BlockingQueue<MqttDelivery> queuedDeliveries   = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final        IMqttActionListener         deliveryListener   = new IMqttActionListener() {
+        @Override public void onSuccess(final IMqttToken TOKEN) {
+            final MqttDelivery DELIVERY = (MqttDelivery) TOKEN.getUserContext();
+            // Deliveries that were failed on a connection loss already gave back their permit
+            if (!inFlightDeliveries.remove(DELIVERY)) return;
+            inFlightPermits.release();
+            metrics.publishSuccess.incrementAndGet();
+            DELIVERY.complete();
+            sendQueuedDeliveries();
+        }
+        @Override public void onFailure(final IMqttToken TOKEN, final Throwable CAUSE) {
+            final MqttDelivery DELIVERY = (MqttDelivery) TOKEN.getUserContext();
+            if (!inFlightDeliveries.remove(DELIVERY)) return;
+            inFlightPermits.release();
+            metrics.publishFailure.incrementAndGet();
+            DELIVERY.fail(CAUSE);
+            sendQueuedDeliveries();
+        }
+    };
+
+    // Coalescing outbox (latest message per topic), taking and sending a message is guarded by the outbox
+    private final        ScheduledExecutorService               scheduler;
+    private final        ConcurrentHashMap<String, MqttMessage> outbox               = new ConcurrentHashMap<>();
+    private final        AtomicBoolean                          outboxFlushScheduled = new AtomicBoolean(false);
+    private volatile     long                                   outboxInterval;
+    private volatile     long                                   lastOutboxFlush;
+
+    // Journal (optional)
+    private volatile     OutboundJournal                      journal;
+    private volatile     int                                  journalDrainRate      = JOURNAL_DRAIN_RATE;
+    private final        AtomicBoolean                        journalDrainScheduled = new AtomicBoolean(false);
+    private final        Map<String, List<JournaledDelivery>> journaledDeliveries   = new HashMap<>(); // also the lock for append/poll
+
+    // Subscriptions (wanted by the app vs. sent to the broker in this session)
+    private final        Set<Topic>           subscribedTopics  = new LinkedHashSet<>(8);
+    private final        Map<String, Integer> activeTopics      = new HashMap<>(8);
+    private final        IMqttActionListener  subscribeListener = new IMqttActionListener() {
+        @Override public void onSuccess(final IMqttToken TOKEN) {}
+        @Override public void onFailure(final IMqttToken TOKEN, final Throwable CAUSE) { subscribeFailed(TOKEN.getTopics()); }
+    };
+
+    // Lamps
+    private              String                 lampTopicPrefix;
+    private              Topic                  lampCommandTopics;
+    private              Topic                  lampStatusTopics;
+    private final        Map<String, Lamp>      lamps = new HashMap<>();
+    private volatile     Map<String, LampRoute> lampRoutes;
+    private              String                 defaultLampId;
+    private              LampListener           defaultLampListener;
+    private              boolean                defaultLampImplicit; // created by the manager, not by registerLamp()
+
+    // Connection state
+    private final        AtomicReference<ConnectionState> state   = new AtomicReference<>(ConnectionState.DISCONNECTED);
+    private final        Metrics                          metrics = new Metrics();
+    private volatile     long                             connectStarted;
+    private volatile     long                             disconnectedSince;
 
     // Reconnection
-    private              Thread             reconnectionThread;
-    private              int                randomBase;
-    private              boolean            connected;
+    private              ScheduledFuture<?> reconnectTask;
+    private              long               reconnectDelay;
+    private              long               reconnectBaseDelay;
+    private              long               reconnectMaxDelay;
 
     // Event Handling
-    private CopyOnWriteArrayList<MqttEventListener> listenerList = new CopyOnWriteArrayList<>();
+    private CopyOnWriteArrayList<MqttEventListener> listenerList      = new CopyOnWriteArrayList<>();
+    private CopyOnWriteArrayList<MqttBatchListener> batchListenerList = new CopyOnWriteArrayList<>();
+    private MqttEventDispatcher                     dispatcher;
 
 
     // ******************* Constructors ***************************************
@@ -78,13 +172,28 @@ public enum MqttManager implements MqttCallback {
         clientId         = UUID.randomUUID().toString();
         userName         = "";
         password         = "";
-        huzzahIncoming   = MainView.HUZZAH_INCOMING;
-        huzzahOutgoing   = MainView.HUZZAH_OUTGOING;
-        subscribedTopics = new ArrayList<>(8);
-        subscribedTopics.add(huzzahIncoming);
-        subscribedTopics.add(huzzahOutgoing);
 
-        randomBase = new Random().nextInt(11) + 5; // between 5 and 15 seconds
+        // One wildcard subscription per topic type covers all lamps
+        lampTopicPrefix   = DEFAULT_LAMP_TOPIC_PREFIX;
+        lampCommandTopics = new Topic(lampTopicPrefix + "/+", QOS_0);
+        lampStatusTopics  = new Topic(lampTopicPrefix + "/+" + Lamp.STATUS_SUFFIX, QOS_0);
+        subscribedTopics.add(lampCommandTopics);
+        subscribedTopics.add(lampStatusTopics);
+        lampRoutes        = new HashMap<>();
+        defaultLampId     = DEFAULT_LAMP_ID;
+        registerDefaultLamp();
+
+        reconnectBaseDelay = RECONNECT_BASE_DELAY;
+        reconnectMaxDelay  = RECONNECT_MAX_DELAY;
+
+        scheduler       = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MQTT Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        outboxInterval  = OUTBOX_INTERVAL;
+        lastOutboxFlush = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(OUTBOX_INTERVAL);
+        dispatcher      = new MqttEventDispatcher(MqttEventDispatcher.DEFAULT_CAPACITY, OverflowPolicy.COALESCE, this::deliverMqttEvents);
         init();
     }
 
@@ -94,10 +203,9 @@ public enum MqttManager implements MqttCallback {
         clientConnectOptions = new MqttConnectOptions();
         clientConnectOptions.setCleanSession(true);
         clientConnectOptions.setKeepAliveInterval(1200);
-        connected = false;
     }
     public void reInit() {
-        if (connected) {
+        if (isConnected()) {
             unSubscribeTopics();
             disconnect(2000);
         }
@@ -107,84 +215,297 @@ public enum MqttManager implements MqttCallback {
 
 
     // ******************** Methods *******************************************
+    /**
+     * Connects to the broker and blocks until the connection is established or failed.
+     * If it failed the manager keeps on trying in the background until it is connected
+     * or disconnect() is called.
+     */
     public void connect() {
+        // Take over the old client, results of its pending reconnection attempt will be ignored from now on
+        final MqttAsyncClient OLD_CLIENT;
+        synchronized (this) {
+            cancelReconnect();
+            OLD_CLIENT = client;
+            client     = null;
+        }
+        setState(ConnectionState.CONNECTING);
+        closeClient(OLD_CLIENT, CLOSE_TIMEOUT);
+        MqttAsyncClient newClient = null;
         try {
             if (!userName.isEmpty()) {
                 clientConnectOptions.setUserName(userName);
                 clientConnectOptions.setPassword(password.toCharArray());
             }
-            client = new MqttClient(brokerAddress + ":" + brokerPort, clientId, new MemoryPersistence());
-            client.setCallback(this);
-            client.connect(clientConnectOptions);
-            connected = true;
-            fireMqttEvent(CONNECT_EVENT);
-            subscribeToTopics();
+            newClient = new MqttAsyncClient(brokerAddress + ":" + brokerPort, clientId, new MemoryPersistence());
+            newClient.setCallback(new ClientCallback(newClient));
+            synchronized (this) { client = newClient; }
+            newClient.connect(clientConnectOptions).waitForCompletion();
+            connectionEstablished(newClient);
         } catch (MqttException exception) {
-            connected = false;
-            fireMqttEvent(DISCONNECT_EVENT);
-            reconnect();
+            // The caller asked for this connection, tell the listeners that it failed
+            if (null == newClient) {
+                if (compareAndSetState(ConnectionState.CONNECTING, ConnectionState.BACKING_OFF)) { fireMqttEvent(DISCONNECT_EVENT); }
+            } else if (connectionFailed(newClient)) {
+                fireMqttEvent(DISCONNECT_EVENT);
+            }
         }
     }
-    public boolean isConnected() { return connected; }
+    public boolean isConnected() { return ConnectionState.CONNECTED == state.get(); }
+    public ConnectionState getConnectionState() { return state.get(); }
+    /**
+     * Stops a running reconnection and disconnects from the broker.
+     * @param TIMEOUT
+     */
     public void disconnect(final long TIMEOUT) {
-        if (null == client || !client.isConnected()) return;
-        try {
-            if (null != reconnectionThread && reconnectionThread.isAlive()) { reconnectionThread.interrupt(); }
-            client.disconnect(TIMEOUT);
-        } catch (MqttException exception) {
+        setState(ConnectionState.CLOSING);
+        cancelReconnect();
+        final MqttAsyncClient CLIENT = client;
+        if (null != CLIENT) {
+            try {
+                if (CLIENT.isConnected()) { CLIENT.disconnect(TIMEOUT).waitForCompletion(TIMEOUT); }
+            } catch (MqttException exception) {
+            }
         }
+        failPendingDeliveries(MqttException.REASON_CODE_CLIENT_DISCONNECTING);
+        setState(ConnectionState.DISCONNECTED);
     }
 
-    public void subscribeTo(final Topic TOPIC) {
-        if (subscribedTopics.contains(TOPIC)) return;
-        try {
-            client.subscribe(TOPIC.NAME, TOPIC.QOS);
-            subscribedTopics.add(TOPIC);
-        } catch (Exception exception) {}
+    /**
+     * @return the connection and publish statistics, e.g. for a scraper or a JMX bean
+     */
+    public MqttMetrics getMetrics() { return metrics; }
+
+    public void subscribeTo(final Topic TOPIC) { updateSubscriptions(Collections.singleton(TOPIC), Collections.emptySet()); }
+    public void unSubscribeFrom(final Topic TOPIC) { updateSubscriptions(Collections.emptySet(), Collections.singleton(TOPIC)); }
+    /**
+     * Changes the subscriptions in one go, if connected the difference to the
+     * subscriptions of the current session is sent with at most one UNSUBSCRIBE
+     * and one SUBSCRIBE packet, no matter how many topics changed. Otherwise the
+     * subscriptions will be sent on the next connect.
+     * @param SUBSCRIBE topics to subscribe to
+     * @param UNSUBSCRIBE topics to unsubscribe from
+     */
+    public synchronized void updateSubscriptions(final Collection<Topic> SUBSCRIBE, final Collection<Topic> UNSUBSCRIBE) {
+        boolean changed = subscribedTopics.removeAll(UNSUBSCRIBE);
+        changed |= subscribedTopics.addAll(SUBSCRIBE);
+        if (changed) { syncSubscriptions(); }
     }
-    public void unSubscribeFrom(final Topic TOPIC) {
-        if (!subscribedTopics.contains(TOPIC)) return;
-        try {
-            client.unsubscribe(TOPIC.NAME);
-            subscribedTopics.remove(TOPIC);
-        } catch (Exception exception) {}
+    public synchronized Set<Topic> getSubscribedTopics() { return Collections.unmodifiableSet(new LinkedHashSet<>(subscribedTopics)); }
+
+    /**
+     * Sends the difference between the wanted subscriptions and the ones of the
+     * current session to the broker. A topic that changed its qos is simply
+     * subscribed again, the broker replaces the existing subscription.
+     */
+    private synchronized void syncSubscriptions() {
+        final MqttAsyncClient CLIENT = client;
+        if (!isConnected() || null == CLIENT) return;
+        final Map<String, Integer> WANTED = new HashMap<>(subscribedTopics.size() * 2);
+        for (Topic topic : subscribedTopics) {
+            final Integer QOS = WANTED.get(topic.NAME);
+            if (null == QOS || QOS < topic.QOS) { WANTED.put(topic.NAME, topic.QOS); }
+        }
+
+        final List<String> REMOVED = new ArrayList<>();
+        for (String name : activeTopics.keySet()) { if (!WANTED.containsKey(name)) { REMOVED.add(name); } }
+        final List<String> ADDED = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : WANTED.entrySet()) {
+            if (!entry.getValue().equals(activeTopics.get(entry.getKey()))) { ADDED.add(entry.getKey()); }
+        }
+
+        if (!REMOVED.isEmpty()) {
+            for (String name : REMOVED) { activeTopics.remove(name); }
+            try {
+                CLIENT.unsubscribe(REMOVED.toArray(new String[REMOVED.size()]), null, null);
+            } catch (MqttException exception) {}
+        }
+        if (!ADDED.isEmpty()) {
+            final String[] NAMES = ADDED.toArray(new String[ADDED.size()]);
+            final int[]    QOS   = new int[NAMES.length];
+            for (int i = 0 ; i < NAMES.length ; i++) {
+                QOS[i] = WANTED.get(NAMES[i]);
+                activeTopics.put(NAMES[i], QOS[i]);
+            }
+            try {
+                CLIENT.subscribe(NAMES, QOS, null, subscribeListener);
+            } catch (MqttException exception) {
+                subscribeFailed(NAMES);
+            }
+        }
     }
 
-    private void subscribeToTopics() {
+    // Topics that the broker did not accept will be sent again with the next change or connect
+    private synchronized void subscribeFailed(final String[] NAMES) {
+        if (null == NAMES) return;
+        for (String name : NAMES) { activeTopics.remove(name); }
+    }
+
+    private synchronized void unSubscribeTopics() {
+        final MqttAsyncClient CLIENT = client;
+        if (activeTopics.isEmpty() || null == CLIENT) return;
+        final String[] NAMES = activeTopics.keySet().toArray(new String[activeTopics.size()]);
+        activeTopics.clear();
         try {
-            unSubscribeTopics();
-            for(Topic topic : subscribedTopics) {
-                client.subscribe(topic.NAME, topic.QOS);
+            CLIENT.unsubscribe(NAMES, null, null);
+        } catch (MqttException exception) {}
+    }
+
+    public MqttDelivery publish(String MESSAGE) {
+        final Topic TOPIC = getHuzzahIncomingTopic();
+        return publish(TOPIC.QOS, NOT_RETAINED, TOPIC.NAME, MESSAGE);
+    }
+    public MqttDelivery publish(final int QOS, final boolean RETAINED, final String TOPIC, final String MESSAGE) {
+        return publish(QOS, RETAINED, TOPIC, MESSAGE.getBytes());
+    }
+    /**
+     * Hands the given payload over to the MQTT client without blocking the calling thread.
+     * At most MAX_IN_FLIGHT messages are on the wire at the same time, everything above
+     * will be queued (up to MAX_QUEUED messages) and sent as soon as a delivery completes.
+     * @param QOS
+     * @param RETAINED
+     * @param TOPIC
+     * @param PAYLOAD
+     * @return a handle that can be used to track the delivery of the message
+     */
+    public MqttDelivery publish(final int QOS, final boolean RETAINED, final String TOPIC, final byte[] PAYLOAD) {
+        MqttMessage message = new MqttMessage(PAYLOAD);
+        message.setQos(QOS);
+        message.setRetained(RETAINED);
+        // A direct publish supersedes a coalesced message that is still waiting for the same topic.
+        // The outbox is the lock so that a flush can't send an older message after this one.
+        synchronized (outbox) {
+            outbox.remove(TOPIC);
+            return send(TOPIC, message);
+        }
+    }
+
+    /**
+     * Puts the given payload into the outbox where it replaces a not yet sent payload
+     * for the same topic. The outbox is flushed at most once per outbox interval, so
+     * fast sequences of updates (e.g. dragging the color regulator) only send the
+     * latest value per topic.
+     * @param MESSAGE
+     */
+    public void publishLatest(final String MESSAGE) {
+        final Topic TOPIC = getHuzzahIncomingTopic();
+        publishLatest(TOPIC.QOS, TOPIC.NAME, MESSAGE.getBytes());
+    }
+    /**
+     * Publishes the given color to the given lamp in the payload format of the lamp.
+     * The payload array is the only allocation, Paho keeps a reference to it
+     * until the message is delivered so it can't be reused.
+     * @param LAMP
+     * @param ARGB
+     * @return the delivery of the message
+     */
+    public MqttDelivery publishColor(final Lamp LAMP, final int ARGB) {
+        return publish(LAMP.COMMAND_TOPIC.QOS, NOT_RETAINED, LAMP.COMMAND_TOPIC.NAME, encodeColor(LAMP, ARGB));
+    }
+    public void publishLatestColor(final Lamp LAMP, final int ARGB) {
+        publishLatest(LAMP.COMMAND_TOPIC.QOS, LAMP.COMMAND_TOPIC.NAME, encodeColor(LAMP, ARGB));
+    }
+
+    public void publishLatest(final int QOS, final String TOPIC, final byte[] PAYLOAD) {
+        MqttMessage message = new MqttMessage(PAYLOAD);
+        message.setQos(QOS);
+        message.setRetained(NOT_RETAINED);
+        outbox.put(TOPIC, message);
+        scheduleOutboxFlush();
+    }
+
+    public long getOutboxInterval() { return outboxInterval; }
+    public void setOutboxInterval(final long MILLISECONDS) { outboxInterval = Math.max(0, MILLISECONDS); }
+
+    private static byte[] encodeColor(final Lamp LAMP, final int ARGB) {
+        final ColorCodec.Format FORMAT  = LAMP.getFormat();
+        final byte[]            PAYLOAD = new byte[ColorCodec.getEncodedLength(FORMAT)];
+        ColorCodec.encode(ARGB, FORMAT, PAYLOAD, 0);
+        return PAYLOAD;
+    }
+
+    private void scheduleOutboxFlush() {
+        if (!outboxFlushScheduled.compareAndSet(false, true)) return;
+        long delay = Math.max(0, lastOutboxFlush + TimeUnit.MILLISECONDS.toNanos(outboxInterval) - System.nanoTime());
+        scheduler.schedule(this::flushOutbox, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void flushOutbox() {
+        lastOutboxFlush = System.nanoTime();
+        // Reset before draining, messages that arrive while draining will schedule the next flush
+        outboxFlushScheduled.set(false);
+        for (String topic : outbox.keySet()) {
+            synchronized (outbox) {
+                MqttMessage message = outbox.remove(topic);
+                if (null != message) { send(topic, message); }
             }
-        } catch (Exception exception) {
         }
     }
-    private void unSubscribeTopics() {
-        try {
-            for (Topic topic : subscribedTopics) { client.unsubscribe(topic.NAME); }
-        } catch (Exception exception) {}
+
+    private MqttDelivery send(final String TOPIC, final MqttMessage MESSAGE) {
+        MqttDelivery          delivery = new MqttDelivery(TOPIC, MESSAGE);
+        final OutboundJournal JOURNAL  = journal;
+        // While the journal is drained new messages queue up behind the older ones
+        if (null != JOURNAL && (!isConnected() || !JOURNAL.isEmpty())) {
+            appendToJournal(JOURNAL, delivery);
+        } else {
+            sendNow(delivery);
+        }
+        return delivery;
     }
-    public List<Topic> getSubscribedTopics() { return subscribedTopics; }
 
-    public void publish(String MESSAGE) { publish(huzzahIncoming.QOS, NOT_RETAINED, huzzahIncoming.NAME, MESSAGE); }
-    public void publish(final int QOS, final boolean RETAINED, final String TOPIC, final String MESSAGE) {
-        publish(QOS, RETAINED, TOPIC, MESSAGE.getBytes());
+    private void sendNow(final MqttDelivery delivery) {
+        final MqttAsyncClient CLIENT = client;
+        if (null != CLIENT && CLIENT.isConnected()) {
+            if (queuedDeliveries.offer(delivery)) {
+                sendQueuedDeliveries();
+            } else {
+                metrics.publishFailure.incrementAndGet();
+                delivery.fail(new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT));
+            }
+        } else {
+            metrics.publishFailure.incrementAndGet();
+            delivery.fail(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+        }
     }
-    public void publish(final int QOS, final boolean RETAINED, final String TOPIC, final byte[] PAYLOAD) {
-        if (null == client) connect();
-        if (null != client && client.isConnected()) {
+
+    private void sendQueuedDeliveries() {
+        while (!queuedDeliveries.isEmpty() && inFlightPermits.tryAcquire()) {
+            MqttDelivery delivery = queuedDeliveries.poll();
+            if (null == delivery) {
+                inFlightPermits.release();
+                return;
+            }
             try {
-                MqttTopic topic = client.getTopic(TOPIC);
-                MqttMessage message = new MqttMessage(PAYLOAD);
-                message.setQos(QOS);
-                message.setRetained(RETAINED);
-                MqttDeliveryToken token = topic.publish(message);
-                token.waitForCompletion(100);
-                Thread.sleep(10);
-            } catch (MqttException exception) {} catch (InterruptedException exception) {}
-        } else {
-            connected = false;
-            fireMqttEvent(DISCONNECT_EVENT);
+                final MqttAsyncClient CLIENT = client;
+                if (null == CLIENT) { throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED); }
+                delivery.setInFlight();
+                inFlightDeliveries.add(delivery);
+                CLIENT.publish(delivery.TOPIC, delivery.MESSAGE, delivery, deliveryListener);
+            } catch (MqttException exception) {
+                if (inFlightDeliveries.remove(delivery)) { inFlightPermits.release(); }
+                metrics.publishFailure.incrementAndGet();
+                delivery.fail(exception);
+            }
+        }
+    }
+
+    /**
+     * Fails the queued and in flight deliveries, so nobody waits for them and
+     * no message of the old session is sent after a (clean session) reconnect.
+     * The permits of the in flight deliveries are given back.
+     * @param REASON_CODE
+     */
+    private void failPendingDeliveries(final int REASON_CODE) {
+        MqttDelivery delivery;
+        while (null != (delivery = queuedDeliveries.poll())) {
+            metrics.publishFailure.incrementAndGet();
+            delivery.fail(new MqttException(REASON_CODE));
+        }
+        for (MqttDelivery inFlightDelivery : inFlightDeliveries) {
+            if (!inFlightDeliveries.remove(inFlightDelivery)) continue;
+            inFlightPermits.release();
+            metrics.publishFailure.incrementAndGet();
+            inFlightDelivery.fail(new MqttException(REASON_CODE));
         }
     }
 
@@ -209,92 +530,342 @@ public enum MqttManager implements MqttCallback {
     public String getPassword() { return password; }
     public void setPassword(final String PASSWORD) { password = PASSWORD; }
 
-    public Topic getHuzzahIncomingTopic() { return huzzahIncoming; }
-    public void setHuzzahIncomingTopic(final Topic TOPIC) {
-        huzzahIncoming = TOPIC;
-        subscribeTo(TOPIC);
-        subscribeToTopics();
-    }
+    public Topic getHuzzahIncomingTopic() { return getDefaultLamp().COMMAND_TOPIC; }
 
-    public Topic getHuzzahOutgoingTopic() { return huzzahOutgoing; }
-    public void setHuzzahOutgoing(final Topic TOPIC) {
-        huzzahOutgoing = TOPIC;
-        subscribeTo(TOPIC);
-        subscribeToTopics();
-    }
+    public Topic getHuzzahOutgoingTopic() { return getDefaultLamp().STATUS_TOPIC; }
 
 
-    // ******************** Reconnection **************************************
-    private boolean isReconnectionAllowed() { return !client.isConnected(); }
+    // ******************** Journal *******************************************
+    public OutboundJournal getOutboundJournal() { return journal; }
+    /**
+     * With a journal messages that are published while the client is not connected
+     * will be written to the journal instead of failing. After the connection is
+     * established the journal is compacted (only the latest message per topic is
+     * kept) and drained with the journal drain rate. Null disables the journal.
+     * @param JOURNAL
+     */
+    public void setOutboundJournal(final OutboundJournal JOURNAL) {
+        journal = JOURNAL;
+        if (null != JOURNAL && isConnected() && !JOURNAL.isEmpty()) { scheduleJournalDrain(); }
+    }
 
-    synchronized protected void reconnect() {
-        if (client.isConnected() && reconnectionThread != null && reconnectionThread.isAlive()) return;
+    public int getJournalDrainRate() { return journalDrainRate; }
+    /**
+     * @param MESSAGES_PER_SECOND max. number of journaled messages that will be sent per second
+     */
+    public void setJournalDrainRate(final int MESSAGES_PER_SECOND) { journalDrainRate = Math.max(1, MESSAGES_PER_SECOND); }
+
+    private void appendToJournal(final OutboundJournal JOURNAL, final MqttDelivery DELIVERY) {
+        // The delivery is registered before a drain can poll its record
+        synchronized (journaledDeliveries) {
+            final long SEQUENCE = JOURNAL.append(DELIVERY.TOPIC, DELIVERY.MESSAGE);
+            if (SEQUENCE < 0) {
+                metrics.publishFailure.incrementAndGet();
+                DELIVERY.fail(new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT));
+                return;
+            }
+            List<JournaledDelivery> deliveries = journaledDeliveries.get(DELIVERY.TOPIC);
+            if (null == deliveries) {
+                deliveries = new ArrayList<>(4);
+                journaledDeliveries.put(DELIVERY.TOPIC, deliveries);
+            }
+            deliveries.add(new JournaledDelivery(SEQUENCE, DELIVERY));
+        }
+        if (isConnected()) { scheduleJournalDrain(); }
+    }
 
-        reconnectionThread = new Thread() {
+    /**
+     * Removes the deliveries that the given record stands for, i.e. the ones
+     * with the same topic up to the sequence number of the record. Older ones
+     * have been compacted away, newer ones still have their own record.
+     * Has to be called while holding the lock of journaledDeliveries.
+     */
+    private List<MqttDelivery> removeJournaledDeliveries(final OutboundJournal.Record RECORD) {
+        final List<JournaledDelivery> DELIVERIES = journaledDeliveries.get(RECORD.TOPIC);
+        if (null == DELIVERIES) return null;
+        final List<MqttDelivery> REMOVED = new ArrayList<>(DELIVERIES.size());
+        // Sorted by sequence number, they are appended under the same lock
+        while (!DELIVERIES.isEmpty() && DELIVERIES.get(0).SEQUENCE <= RECORD.SEQUENCE) { REMOVED.add(DELIVERIES.remove(0).DELIVERY); }
+        if (DELIVERIES.isEmpty()) { journaledDeliveries.remove(RECORD.TOPIC); }
+        return REMOVED;
+    }
 
-            private int attempts = 0;
+    private void scheduleJournalDrain() {
+        if (!journalDrainScheduled.compareAndSet(false, true)) return;
+        scheduler.schedule(this::drainJournal, OUTBOX_INTERVAL, TimeUnit.MILLISECONDS);
+    }
 
-            /**
-             * Returns the number of seconds until the next reconnection attempt.
-             * @return the number of seconds until the next reconnection attempt.
-             */
-            private int timeDelay() {
-                attempts++;
-                if (attempts > 13) {
-                    return randomBase * 6 * 5; // between 2.5 and 7.5 minutes (~5 minutes)
-                }
-                if (attempts > 7) {
-                    return randomBase * 6;     // between 30 and 90 seconds (~1 minutes)
-                }
-                return randomBase;             // 10 seconds
+    private void drainJournal() {
+        journalDrainScheduled.set(false);
+        final OutboundJournal JOURNAL = journal;
+        if (null == JOURNAL || !isConnected()) return;
+        final int BATCH_SIZE = Math.max(1, (int) Math.ceil(journalDrainRate * OUTBOX_INTERVAL / 1000.0));
+        // Leave room in the queue for messages that are published directly
+        if (queuedDeliveries.remainingCapacity() > BATCH_SIZE) {
+            final List<OutboundJournal.Record> RECORDS;
+            final List<List<MqttDelivery>>     WAITING_DELIVERIES;
+            synchronized (journaledDeliveries) {
+                RECORDS            = JOURNAL.poll(BATCH_SIZE);
+                WAITING_DELIVERIES = new ArrayList<>(RECORDS.size());
+                for (OutboundJournal.Record record : RECORDS) { WAITING_DELIVERIES.add(removeJournaledDeliveries(record)); }
             }
-
-            /**
-             * The process will try the reconnection until the connection
-             * succeed or the user cancel it
-             */
-            public void run() {
-                while (MqttManager.this.isReconnectionAllowed()) {
-                    int remainingSeconds = timeDelay();
-
-                    while (MqttManager.this.isReconnectionAllowed() && remainingSeconds > 0) {
-                        try {
-                            Thread.sleep(1000);
-                            remainingSeconds--;
-                        } catch (InterruptedException exception) {
-                            connected = false;
-                            fireMqttEvent(DISCONNECT_EVENT);
-                        }
-                    }
-
-                    // Makes a reconnection attempt
-                    try {
-                        if (MqttManager.this.isReconnectionAllowed()) {
-                            client.connect(clientConnectOptions);
-                            if (client.isConnected()) {
-                                connected = true;
-                                fireMqttEvent(CONNECT_EVENT);
-                                subscribeToTopics();
-                            }
+            for (int i = 0 ; i < RECORDS.size() ; i++) {
+                final OutboundJournal.Record RECORD  = RECORDS.get(i);
+                final List<MqttDelivery>     WAITING = WAITING_DELIVERIES.get(i);
+                final MqttDelivery           REPLAY  = new MqttDelivery(RECORD.TOPIC, RECORD.MESSAGE);
+                // Messages that have been compacted away are done with the one that replaced them
+                if (null != WAITING && !WAITING.isEmpty()) {
+                    REPLAY.setOnDeliveryComplete(replay -> {
+                        for (MqttDelivery delivery : WAITING) {
+                            if (replay.isDelivered()) { delivery.complete(); } else { delivery.fail(replay.getCause()); }
                         }
-                    } catch (MqttException exception) {
-                        // Fires the failed reconnection notification
-                        connected = false;
-                        fireMqttEvent(DISCONNECT_EVENT);
-                    }
+                    });
                 }
+                sendNow(REPLAY);
             }
-        };
-        reconnectionThread.setName("MQTT Reconnection Manager");
-        reconnectionThread.setDaemon(false);
-        reconnectionThread.start();
+        }
+        if (!JOURNAL.isEmpty()) { scheduleJournalDrain(); }
+    }
+
+
+    // ******************** Lamps *********************************************
+    /**
+     * Registers a lamp with the given id. Messages on the command and status topic
+     * of the lamp will be routed to the given listener with a single map lookup,
+     * independent of the number of registered lamps.
+     * @param ID
+     * @param LISTENER
+     * @return the registered lamp
+     */
+    public synchronized Lamp registerLamp(final String ID, final LampListener LISTENER) {
+        if (ID.equals(defaultLampId)) { defaultLampImplicit = false; }
+        return putLamp(ID, LISTENER);
+    }
+    private Lamp putLamp(final String ID, final LampListener LISTENER) {
+        Lamp lamp = new Lamp(lampTopicPrefix, ID, LISTENER);
+        lamps.put(ID, lamp);
+        updateLampRoutes();
+        return lamp;
+    }
+    public synchronized void unregisterLamp(final String ID) {
+        if (null == lamps.remove(ID)) return;
+        updateLampRoutes();
+    }
+    public synchronized Lamp getLamp(final String ID) { return lamps.get(ID); }
+    public synchronized Collection<Lamp> getLamps() { return new ArrayList<>(lamps.values()); }
+
+    /**
+     * The default lamp is the one that will be addressed by publish(String) and publishLatest(String)
+     * @return the default lamp
+     */
+    public synchronized Lamp getDefaultLamp() { return lamps.get(defaultLampId); }
+    public synchronized void setDefaultLampId(final String ID) {
+        if (defaultLampId.equals(ID)) return;
+        // A lamp that was registered explicitly stays registered
+        if (defaultLampImplicit && null != lamps.remove(defaultLampId)) { updateLampRoutes(); }
+        defaultLampId = ID;
+        registerDefaultLamp();
+    }
+    /**
+     * The listener is used for the default lamp unless a lamp with the default id
+     * has been registered explicitly, that one keeps its own listener.
+     * @param LISTENER
+     */
+    public synchronized void setDefaultLampListener(final LampListener LISTENER) {
+        defaultLampListener = LISTENER;
+        if (defaultLampImplicit) { putLamp(defaultLampId, defaultLampListener); }
+    }
+
+    private void registerDefaultLamp() {
+        defaultLampImplicit = !lamps.containsKey(defaultLampId);
+        if (defaultLampImplicit) { putLamp(defaultLampId, defaultLampListener); }
+    }
+
+    public synchronized String getLampTopicPrefix() { return lampTopicPrefix; }
+    public synchronized void setLampTopicPrefix(final String PREFIX) {
+        if (lampTopicPrefix.equals(PREFIX)) return;
+        lampTopicPrefix = PREFIX;
+
+        // Swap the wildcard subscriptions with one round trip each way
+        final List<Topic> OLD_TOPICS = Arrays.asList(lampCommandTopics, lampStatusTopics);
+        lampCommandTopics = new Topic(lampTopicPrefix + "/+", QOS_0);
+        lampStatusTopics  = new Topic(lampTopicPrefix + "/+" + Lamp.STATUS_SUFFIX, QOS_0);
+        updateSubscriptions(Arrays.asList(lampCommandTopics, lampStatusTopics), OLD_TOPICS);
+
+        for (Lamp lamp : new ArrayList<>(lamps.values())) {
+            Lamp renamedLamp = new Lamp(lampTopicPrefix, lamp.ID, lamp.LISTENER);
+            renamedLamp.setFormat(lamp.getFormat());
+            lamps.put(lamp.ID, renamedLamp);
+        }
+        updateLampRoutes();
+    }
+
+    private void updateLampRoutes() {
+        // Copy on write, messageArrived() reads the routes without locking
+        Map<String, LampRoute> routes = new HashMap<>(lamps.size() * 4);
+        for (Lamp lamp : lamps.values()) {
+            routes.put(lamp.COMMAND_TOPIC.NAME, new LampRoute(lamp, false));
+            routes.put(lamp.STATUS_TOPIC.NAME, new LampRoute(lamp, true));
+        }
+        lampRoutes = routes;
+    }
+
+
+    // ******************** Reconnection **************************************
+    public synchronized long getReconnectBaseDelay() { return reconnectBaseDelay; }
+    public synchronized long getReconnectMaxDelay() { return reconnectMaxDelay; }
+    /**
+     * @param BASE_DELAY the minimum delay between two reconnection attempts in ms
+     * @param MAX_DELAY the maximum delay between two reconnection attempts in ms
+     */
+    public synchronized void setReconnectDelays(final long BASE_DELAY, final long MAX_DELAY) {
+        reconnectBaseDelay = Math.max(1, BASE_DELAY);
+        reconnectMaxDelay  = Math.max(reconnectBaseDelay, MAX_DELAY);
+    }
+
+    private void setState(final ConnectionState STATE) { stateChanged(state.getAndSet(STATE), STATE); }
+    private boolean compareAndSetState(final ConnectionState EXPECTED, final ConnectionState STATE) {
+        if (!state.compareAndSet(EXPECTED, STATE)) return false;
+        stateChanged(EXPECTED, STATE);
+        return true;
+    }
+
+    // Called by the thread that made the transition, so listeners get exactly one event per transition
+    private void stateChanged(final ConnectionState PREVIOUS, final ConnectionState STATE) {
+        if (PREVIOUS == STATE) return;
+        final long NOW = System.nanoTime();
+        switch (STATE) {
+            case CONNECTING:
+                connectStarted = NOW;
+                break;
+            case CONNECTED:
+                metrics.connectLatency.record(NOW - connectStarted);
+                if (0 != disconnectedSince) {
+                    metrics.disconnectedTime.record(NOW - disconnectedSince);
+                    disconnectedSince = 0;
+                }
+                fireMqttEvent(CONNECT_EVENT);
+                break;
+            case BACKING_OFF:
+                if (ConnectionState.CONNECTED == PREVIOUS) { disconnectedSince = NOW; }
+                break;
+            case DISCONNECTED:
+                disconnectedSince = 0;
+                break;
+        }
+        if (ConnectionState.CONNECTED == PREVIOUS) { fireMqttEvent(DISCONNECT_EVENT); }
+    }
+
+    private void connectionEstablished(final MqttAsyncClient CLIENT) {
+        if (CLIENT != client) {
+            // A late result of a client that was replaced by connect()
+            discardClient(CLIENT);
+            return;
+        }
+        if (!compareAndSetState(ConnectionState.CONNECTING, ConnectionState.CONNECTED)) {
+            // disconnect() was called while connecting
+            try { CLIENT.disconnect(); } catch (MqttException exception) {}
+            return;
+        }
+        synchronized (this) { reconnectDelay = 0; }
+        // Clean session, the broker doesn't know any of our subscriptions
+        synchronized (this) {
+            activeTopics.clear();
+            syncSubscriptions();
+        }
+        final OutboundJournal JOURNAL = journal;
+        if (null != JOURNAL && !JOURNAL.isEmpty()) {
+            JOURNAL.compact();
+            scheduleJournalDrain();
+        }
+    }
+
+    private boolean connectionFailed(final MqttAsyncClient CLIENT) {
+        if (CLIENT != client || !compareAndSetState(ConnectionState.CONNECTING, ConnectionState.BACKING_OFF)) return false;
+        scheduleReconnect();
+        return true;
+    }
+
+    /**
+     * Schedules the next reconnection attempt on the shared scheduler. The delay
+     * uses decorrelated jitter, it is random between the base delay and three
+     * times the last delay (capped at the max delay), so many clients that lost
+     * the broker at the same time won't reconnect at the same time.
+     */
+    private synchronized void scheduleReconnect() {
+        if (ConnectionState.BACKING_OFF != state.get() || null != reconnectTask) return;
+        reconnectDelay = nextReconnectDelay(reconnectDelay, reconnectBaseDelay, reconnectMaxDelay);
+        reconnectTask  = scheduler.schedule(this::attemptReconnect, reconnectDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelReconnect() {
+        if (null != reconnectTask) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+    }
+
+    private void attemptReconnect() {
+        final MqttAsyncClient CLIENT;
+        synchronized (this) {
+            reconnectTask = null;
+            if (null == client) return;
+            CLIENT = client;
+        }
+        if (!compareAndSetState(ConnectionState.BACKING_OFF, ConnectionState.CONNECTING)) return;
+        metrics.reconnectAttempts.incrementAndGet();
+        if (CLIENT.isConnected()) {
+            connectionEstablished(CLIENT);
+            return;
+        }
+        try {
+            // Doesn't block the scheduler, the result comes in on a Paho thread
+            CLIENT.connect(clientConnectOptions, null, new IMqttActionListener() {
+                @Override public void onSuccess(final IMqttToken TOKEN) { connectionEstablished(CLIENT); }
+                @Override public void onFailure(final IMqttToken TOKEN, final Throwable CAUSE) { connectionFailed(CLIENT); }
+            });
+        } catch (MqttException exception) {
+            connectionFailed(CLIENT);
+        }
+    }
+
+    // Blocks up to the given timeout, a connect of the client that is still pending will be discarded when it succeeds
+    private static void closeClient(final MqttAsyncClient CLIENT, final long TIMEOUT) {
+        if (null == CLIENT) return;
+        try {
+            if (CLIENT.isConnected()) { CLIENT.disconnect(TIMEOUT).waitForCompletion(TIMEOUT); }
+        } catch (MqttException exception) {}
+        closeQuietly(CLIENT);
+    }
+
+    // Doesn't block, so it can be called from a callback of the client itself
+    private static void discardClient(final MqttAsyncClient CLIENT) {
+        try {
+            CLIENT.disconnect(0, null, new IMqttActionListener() {
+                @Override public void onSuccess(final IMqttToken TOKEN) { closeQuietly(CLIENT); }
+                @Override public void onFailure(final IMqttToken TOKEN, final Throwable CAUSE) { closeQuietly(CLIENT); }
+            });
+        } catch (MqttException exception) {
+            closeQuietly(CLIENT);
+        }
+    }
+
+    private static void closeQuietly(final MqttAsyncClient CLIENT) {
+        try { CLIENT.close(); } catch (MqttException exception) {}
+    }
+
+    static long nextReconnectDelay(final long LAST_DELAY, final long BASE_DELAY, final long MAX_DELAY) {
+        final long UPPER = Math.max(BASE_DELAY, Math.min(MAX_DELAY, LAST_DELAY * 3));
+        return BASE_DELAY + ThreadLocalRandom.current().nextLong(UPPER - BASE_DELAY + 1);
     }
 
 
     // ******************** Event handling ************************************
     @Override public void connectionLost(final Throwable CAUSE) {
-        fireMqttEvent(DISCONNECT_EVENT);
-        reconnect();
+        if (compareAndSetState(ConnectionState.CONNECTED, ConnectionState.BACKING_OFF)) {
+            failPendingDeliveries(MqttException.REASON_CODE_CONNECTION_LOST);
+            scheduleReconnect();
+        }
     }
     @Override public void messageArrived(final String TOPIC, final MqttMessage MQTT_MESSAGE) {
         fireMqttEvent(new MqttEvent(this, MqttEventType.MESSAGE, TOPIC, MQTT_MESSAGE));
@@ -305,5 +876,110 @@ public enum MqttManager implements MqttCallback {
     public final void addMqttEventListener(final MqttEventListener LISTENER) { if (!listenerList.contains(LISTENER)) listenerList.add(LISTENER); }
     public final void removeMqttEventListener(final MqttEventListener LISTENER) { if (listenerList.contains(LISTENER)) listenerList.remove(LISTENER); }
 
-    public void fireMqttEvent(final MqttEvent EVENT) { for (MqttEventListener listener : listenerList) { listener.onMqttEvent(EVENT); } }
+    public final void addMqttBatchListener(final MqttBatchListener LISTENER) { if (!batchListenerList.contains(LISTENER)) batchListenerList.add(LISTENER); }
+    public final void removeMqttBatchListener(final MqttBatchListener LISTENER) { if (batchListenerList.contains(LISTENER)) batchListenerList.remove(LISTENER); }
+
+    public OverflowPolicy getEventOverflowPolicy() { return dispatcher.getOverflowPolicy(); }
+    public void setEventOverflowPolicy(final OverflowPolicy POLICY) { dispatcher.setOverflowPolicy(POLICY); }
+
+    public long getDroppedEvents() { return dispatcher.getDroppedEvents(); }
+    public long getCoalescedEvents() { return dispatcher.getCoalescedEvents(); }
+
+    /**
+     * Events will be delivered to the listeners on the dispatcher thread, so this
+     * method returns immediately unless the event buffer is full.
+     * @param EVENT
+     */
+    public void fireMqttEvent(final MqttEvent EVENT) { dispatcher.dispatch(EVENT); }
+
+    private void deliverMqttEvents(final List<MqttEvent> EVENTS) {
+        for (MqttEvent event : EVENTS) {
+            if (MqttEventType.MESSAGE == event.TYPE) { routeToLamp(event); }
+            for (MqttEventListener listener : listenerList) {
+                try {
+                    listener.onMqttEvent(event);
+                } catch (RuntimeException exception) {}
+            }
+        }
+        if (batchListenerList.isEmpty()) return;
+        final List<MqttEvent> BATCH = Collections.unmodifiableList(EVENTS);
+        for (MqttBatchListener listener : batchListenerList) {
+            try {
+                listener.onMqttEvents(BATCH);
+            } catch (RuntimeException exception) {}
+        }
+    }
+
+    private void routeToLamp(final MqttEvent EVENT) {
+        final LampRoute ROUTE = lampRoutes.get(EVENT.TOPIC);
+        if (null == ROUTE) return;
+        // Talk to the lamp in the format it uses for its status
+        if (ROUTE.STATUS) { ROUTE.LAMP.setFormat(ColorCodec.detectFormat(EVENT.MESSAGE.getPayload(), ROUTE.LAMP.getFormat())); }
+        if (null == ROUTE.LAMP.LISTENER) return;
+        try {
+            if (ROUTE.STATUS) {
+                ROUTE.LAMP.LISTENER.onStatus(ROUTE.LAMP, EVENT.MESSAGE);
+            } else {
+                ROUTE.LAMP.LISTENER.onCommand(ROUTE.LAMP, EVENT.MESSAGE);
+            }
+        } catch (RuntimeException exception) {}
+    }
+
+
+    // ******************** Inner Classes *************************************
+    // Forwards the callbacks of one client, a client that was replaced by connect() is ignored
+    private final class ClientCallback implements MqttCallback {
+        private final MqttAsyncClient owner;
+
+
+        ClientCallback(final MqttAsyncClient OWNER) { owner = OWNER; }
+
+        @Override public void connectionLost(final Throwable CAUSE) {
+            if (owner == client) { MqttManager.this.connectionLost(CAUSE); }
+        }
+        @Override public void messageArrived(final String TOPIC, final MqttMessage MQTT_MESSAGE) {
+            if (owner == client) { MqttManager.this.messageArrived(TOPIC, MQTT_MESSAGE); }
+        }
+        @Override public void deliveryComplete(final IMqttDeliveryToken TOKEN) {}
+    }
+
+    private final class Metrics implements MqttMetrics {
+        final LatencyHistogram connectLatency    = new LatencyHistogram();
+        final LatencyHistogram disconnectedTime  = new LatencyHistogram();
+        final AtomicLong       reconnectAttempts = new AtomicLong(0);
+        final AtomicLong       publishSuccess    = new AtomicLong(0);
+        final AtomicLong       publishFailure    = new AtomicLong(0);
+
+
+        @Override public ConnectionState getConnectionState() { return state.get(); }
+        @Override public LatencyHistogram getConnectLatency() { return connectLatency; }
+        @Override public LatencyHistogram getDisconnectedTime() { return disconnectedTime; }
+        @Override public long getReconnectAttempts() { return reconnectAttempts.get(); }
+        @Override public long getPublishSuccessCount() { return publishSuccess.get(); }
+        @Override public long getPublishFailureCount() { return publishFailure.get(); }
+        @Override public int getInFlightCount() { return MAX_IN_FLIGHT - inFlightPermits.availablePermits(); }
+        @Override public int getQueuedCount() { return queuedDeliveries.size(); }
+    }
+
+    private static final class JournaledDelivery {
+        final long         SEQUENCE;
+        final MqttDelivery DELIVERY;
+
+
+        JournaledDelivery(final long SEQUENCE, final MqttDelivery DELIVERY) {
+            this.SEQUENCE = SEQUENCE;
+            this.DELIVERY = DELIVERY;
+        }
+    }
+
+    private static final class LampRoute {
+        final Lamp    LAMP;
+        final boolean STATUS;
+
+
+        LampRoute(final Lamp LAMP, final boolean STATUS) {
+            this.LAMP   = LAMP;
+            this.STATUS = STATUS;
+        }
+    }
 }
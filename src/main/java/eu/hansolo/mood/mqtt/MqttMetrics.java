@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import eu.hansolo.mood.mqtt.MqttManager.ConnectionState;
+
+
+/**
+ * Live view on the connection and publish statistics of the MqttManager.
+ * All methods can be polled from any thread.
+ */
+public interface MqttMetrics {
+    ConnectionState getConnectionState();
+
+    /**
+     * @return time from starting a connection attempt until it is established
+     */
+    LatencyHistogram getConnectLatency();
+
+    /**
+     * @return time from losing the connection until it is established again
+     */
+    LatencyHistogram getDisconnectedTime();
+
+    long getReconnectAttempts();
+
+    long getPublishSuccessCount();
+
+    long getPublishFailureCount();
+
+    /**
+     * @return number of messages handed to the client that are not acknowledged yet
+     */
+    int getInFlightCount();
+
+    /**
+     * @return number of messages waiting for an in flight slot
+     */
+    int getQueuedCount();
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.mood.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Append only journal for outgoing messages in a memory mapped file of fixed size.
+ * MqttManager writes to it while it is not connected and drains it after the
+ * connection is established again, the messages survive a restart of the app.
+ * Before a drain the journal is compacted so that only the latest message per
+ * topic is left (e.g. the last color per lamp). If a message does not fit even
+ * after compaction it will be rejected, so the file never grows beyond its size.
+ *
+ * Every record gets a sequence number that increases across restarts, so
+ * a caller can tell which of its messages a record stands for.
+ *
+ * Records are checked before they are read, the journal is cut off at the first
+ * damaged record (e.g. a page that didn't reach the disk before a power loss).
+ * The compacted records never overwrite the live ones, they are written to the
+ * free space in front of the read position or to a side file that is copied
+ * back and replayed on the next start if the app dies while copying.
+ *
+ * Layout: magic, read position, write position, next sequence number,
+ * followed by the records [length][qos][retained][topic length][sequence][topic][payload].
+ */
+public class OutboundJournal implements Closeable {
+    public  static final int              DEFAULT_MAX_BYTES = 64 * 1024;
+    private static final int              MAGIC             = 0x4D4F4F32; // "MOO2"
+    private static final int              READ_POSITION     = 4;
+    private static final int              WRITE_POSITION    = 8;
+    private static final int              NEXT_SEQUENCE     = 12;
+    private static final int              HEADER_SIZE       = 20;
+    private static final int              RECORD_OVERHEAD   = 16;         // length, qos, retained, topic length, sequence
+    private static final String           COMPACT_SUFFIX    = ".compact";
+    private static final String           TEMP_SUFFIX       = ".tmp";
+    private final        File             file;
+    private final        File             compactFile;
+    private final        RandomAccessFile randomAccessFile;
+    private final        MappedByteBuffer buffer;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Opens the journal in the given file or creates it, a file that was written
+     * with another size or is not a journal will be reset.
+     * @param FILE
+     * @param MAX_BYTES the size of the file and with it the max. disk usage
+     * @throws IOException
+     */
+    public OutboundJournal(final File FILE, final int MAX_BYTES) throws IOException {
+        file             = FILE;
+        compactFile      = new File(FILE.getPath() + COMPACT_SUFFIX);
+        randomAccessFile = new RandomAccessFile(FILE, "rw");
+        final boolean EXISTING = randomAccessFile.length() == MAX_BYTES;
+        buffer           = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(HEADER_SIZE + RECORD_OVERHEAD, MAX_BYTES));
+        if (!EXISTING || !isValid()) { reset(); }
+        recoverCompaction();
+    }
+
+
+    // ******************** Methods *******************************************
+    public File getFile() { return file; }
+
+    public int getMaxBytes() { return buffer.capacity(); }
+
+    public synchronized int getUsedBytes() { return buffer.getInt(WRITE_POSITION) - buffer.getInt(READ_POSITION); }
+
+    public synchronized boolean isEmpty() { return buffer.getInt(READ_POSITION) == buffer.getInt(WRITE_POSITION); }
+
+    /**
+     * Appends the given message, compacts the journal if it is full.
+     * @param TOPIC
+     * @param MESSAGE
+     * @return the sequence number of the record or -1 if the message does not fit into the journal
+     */
+    public synchronized long append(final String TOPIC, final MqttMessage MESSAGE) {
+        final long SEQUENCE = buffer.getLong(NEXT_SEQUENCE);
+        if (!append(TOPIC, MESSAGE, SEQUENCE)) return -1;
+        buffer.putLong(NEXT_SEQUENCE, SEQUENCE + 1);
+        return SEQUENCE;
+    }
+
+    private boolean append(final String TOPIC, final MqttMessage MESSAGE, final long SEQUENCE) {
+        final byte[] NAME    = TOPIC.getBytes(StandardCharsets.UTF_8);
+        final int    LENGTH  = RECORD_OVERHEAD + NAME.length + MESSAGE.getPayload().length;
+        if (buffer.getInt(WRITE_POSITION) + LENGTH > buffer.capacity()) {
+            compact();
+            if (buffer.getInt(WRITE_POSITION) + LENGTH > buffer.capacity()) return false;
+        }
+        final int POSITION = putRecord(buffer, buffer.getInt(WRITE_POSITION), NAME, MESSAGE, SEQUENCE);
+        // The record is complete before the write position makes it visible
+        buffer.putInt(WRITE_POSITION, POSITION);
+        return true;
+    }
+
+    /**
+     * Rewrites the journal so that only the latest message per topic is left,
+     * in the order in which these messages have been appended. The records
+     * keep their sequence numbers. The live records stay untouched until the
+     * compacted ones are on the disk, so a crash loses nothing.
+     */
+    public synchronized void compact() {
+        final int READ  = buffer.getInt(READ_POSITION);
+        final int WRITE = buffer.getInt(WRITE_POSITION);
+        final Map<String, Record> LATEST = new LinkedHashMap<>();
+        int position = READ;
+        while (position < WRITE) {
+            final int LENGTH = recordLength(buffer, position, WRITE);
+            if (LENGTH < 0) break; // the damaged record and everything behind it is dropped
+            final Record RECORD = readRecord(position);
+            LATEST.remove(RECORD.TOPIC);
+            LATEST.put(RECORD.TOPIC, RECORD);
+            position += LENGTH;
+        }
+
+        final ByteBuffer COMPACTED = ByteBuffer.allocate(position - READ);
+        int size = 0;
+        for (Record record : LATEST.values()) { size = putRecord(COMPACTED, size, record.TOPIC.getBytes(StandardCharsets.UTF_8), record.MESSAGE, record.SEQUENCE); }
+
+        if (HEADER_SIZE + size <= READ) {
+            // Fits into the space that was already drained
+            copyToStart(COMPACTED.array(), size);
+        } else {
+            try {
+                writeCompactFile(COMPACTED.array(), size);
+                copyToStart(COMPACTED.array(), size);
+                compactFile.delete();
+            } catch (IOException exception) {
+                // Keep the journal as it is, only cut off a damaged tail
+                if (position < WRITE) { setPositions(READ, position); }
+            }
+        }
+    }
+
+    /**
+     * Removes up to the given number of messages from the head of the journal.
+     * @param MAX_COUNT
+     * @return the removed messages in the order they have been appended
+     */
+    public synchronized List<Record> poll(final int MAX_COUNT) {
+        final List<Record> RECORDS  = new ArrayList<>(Math.max(0, MAX_COUNT));
+        int                write    = buffer.getInt(WRITE_POSITION);
+        int                position = buffer.getInt(READ_POSITION);
+        while (RECORDS.size() < MAX_COUNT && position < write) {
+            final int LENGTH = recordLength(buffer, position, write);
+            if (LENGTH < 0) {
+                // Cut off the damaged record and everything behind it
+                write = position;
+                break;
+            }
+            RECORDS.add(readRecord(position));
+            position += LENGTH;
+        }
+        if (position >= write) {
+            resetPositions();
+        } else {
+            buffer.putInt(READ_POSITION, position);
+        }
+        return RECORDS;
+    }
+
+    /**
+     * Writes the changes to the storage device, the operating system will do that
+     * anyway, this is only needed to survive a power loss.
+     */
+    public synchronized void force() { buffer.force(); }
+
+    @Override public synchronized void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    private static int putRecord(final ByteBuffer BUFFER, final int POSITION, final byte[] NAME, final MqttMessage MESSAGE, final long SEQUENCE) {
+        final byte[] PAYLOAD = MESSAGE.getPayload();
+        int position = POSITION;
+        BUFFER.putInt(position, RECORD_OVERHEAD + NAME.length + PAYLOAD.length);
+        BUFFER.put(position + 4, (byte) MESSAGE.getQos());
+        BUFFER.put(position + 5, (byte) (MESSAGE.isRetained() ? 1 : 0));
+        BUFFER.putShort(position + 6, (short) NAME.length);
+        BUFFER.putLong(position + 8, SEQUENCE);
+        position += RECORD_OVERHEAD;
+        for (byte b : NAME) { BUFFER.put(position++, b); }
+        for (byte b : PAYLOAD) { BUFFER.put(position++, b); }
+        return position;
+    }
+
+    /**
+     * @return the length of the record at the given position or -1 if the record is damaged
+     */
+    private static int recordLength(final ByteBuffer BUFFER, final int POSITION, final int END) {
+        if (END - POSITION < RECORD_OVERHEAD) return -1;
+        final int LENGTH       = BUFFER.getInt(POSITION);
+        final int QOS          = BUFFER.get(POSITION + 4);
+        final int TOPIC_LENGTH = BUFFER.getShort(POSITION + 6) & 0xFFFF;
+        if (LENGTH < RECORD_OVERHEAD + TOPIC_LENGTH || LENGTH > END - POSITION || QOS < 0 || QOS > 2) return -1;
+        return LENGTH;
+    }
+
+    // The records are on the disk before the positions point to them
+    private void copyToStart(final byte[] RECORDS, final int SIZE) {
+        final ByteBuffer TARGET = buffer.duplicate();
+        TARGET.position(HEADER_SIZE);
+        TARGET.put(RECORDS, 0, SIZE);
+        buffer.force();
+        setPositions(HEADER_SIZE, HEADER_SIZE + SIZE);
+        buffer.force();
+    }
+
+    // The side file only exists once it is complete, it is renamed after it has been synced
+    private void writeCompactFile(final byte[] RECORDS, final int SIZE) throws IOException {
+        final File TEMP_FILE = new File(compactFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream output = new FileOutputStream(TEMP_FILE)) {
+            output.write(RECORDS, 0, SIZE);
+            output.getFD().sync();
+        }
+        if (!TEMP_FILE.renameTo(compactFile)) {
+            if (!compactFile.delete() || !TEMP_FILE.renameTo(compactFile)) { throw new IOException("Can't replace " + compactFile); }
+        }
+    }
+
+    // Finishes a compaction that was interrupted while the records were copied back
+    private void recoverCompaction() throws IOException {
+        new File(compactFile.getPath() + TEMP_SUFFIX).delete();
+        if (!compactFile.exists()) return;
+        final int SIZE = (int) Math.min(compactFile.length(), buffer.capacity() - HEADER_SIZE);
+        final byte[] RECORDS = new byte[SIZE];
+        try (RandomAccessFile input = new RandomAccessFile(compactFile, "r")) {
+            input.readFully(RECORDS);
+        }
+        final ByteBuffer COMPACTED = ByteBuffer.wrap(RECORDS);
+        int position = 0;
+        while (position < SIZE) {
+            final int LENGTH = recordLength(COMPACTED, position, SIZE);
+            if (LENGTH < 0) break;
+            position += LENGTH;
+        }
+        if (position == SIZE) { copyToStart(RECORDS, SIZE); }
+        compactFile.delete();
+    }
+
+    private Record readRecord(final int POSITION) {
+        return new Record(readTopic(POSITION), readMessage(POSITION), buffer.getLong(POSITION + 8));
+    }
+
+    private String readTopic(final int POSITION) {
+        final byte[] NAME = new byte[buffer.getShort(POSITION + 6) & 0xFFFF];
+        for (int i = 0 ; i < NAME.length ; i++) { NAME[i] = buffer.get(POSITION + RECORD_OVERHEAD + i); }
+        return new String(NAME, StandardCharsets.UTF_8);
+    }
+
+    private MqttMessage readMessage(final int POSITION) {
+        final int    TOPIC_LENGTH = buffer.getShort(POSITION + 6) & 0xFFFF;
+        final int    OFFSET       = POSITION + RECORD_OVERHEAD + TOPIC_LENGTH;
+        final byte[] PAYLOAD      = new byte[buffer.getInt(POSITION) - RECORD_OVERHEAD - TOPIC_LENGTH];
+        for (int i = 0 ; i < PAYLOAD.length ; i++) { PAYLOAD[i] = buffer.get(OFFSET + i); }
+        MqttMessage message = new MqttMessage(PAYLOAD);
+        message.setQos(buffer.get(POSITION + 4));
+        message.setRetained(1 == buffer.get(POSITION + 5));
+        return message;
+    }
+
+    private boolean isValid() {
+        if (MAGIC != buffer.getInt(0)) return false;
+        final int READ  = buffer.getInt(READ_POSITION);
+        final int WRITE = buffer.getInt(WRITE_POSITION);
+        return READ >= HEADER_SIZE && READ <= WRITE && WRITE <= buffer.capacity() && buffer.getLong(NEXT_SEQUENCE) >= 0;
+    }
+
+    private void reset() {
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(NEXT_SEQUENCE, 0);
+        resetPositions();
+    }
+
+    // Keeps the sequence numbers increasing
+    private void resetPositions() { setPositions(HEADER_SIZE, HEADER_SIZE); }
+
+    // Both positions are written at once, they are next to each other in the header
+    private void setPositions(final int READ, final int WRITE) {
+        buffer.putLong(READ_POSITION, ((long) READ << 32) | (WRITE & 0xFFFFFFFFL));
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static final class Record {
+        public final String      TOPIC;
+        public final MqttMessage MESSAGE;
+        public final long        SEQUENCE;
+
+
+        Record(final String TOPIC, final MqttMessage MESSAGE, final long SEQUENCE) {
+            this.TOPIC    = TOPIC;
+            this.MESSAGE  = MESSAGE;
+            this.SEQUENCE = SEQUENCE;
+        }
+    }
+}
@@ -30,6 +30,15 @@ public class Topic {
         this.QOS  = QOS;
     }
 
+    @Override public boolean equals(final Object OBJECT) {
+        if (this == OBJECT) return true;
+        if (!(OBJECT instanceof Topic)) return false;
+        Topic topic = (Topic) OBJECT;
+        return QOS == topic.QOS && NAME.equals(topic.NAME);
+    }
+
+    @Override public int hashCode() { return 31 * NAME.hashCode() + QOS; }
+
     @Override public String toString() {
         return new StringBuilder("{").append("\n\"topic\":").append(NAME).append("\n\"qos\":").append(QOS).append("\n}").toString();
     }